@@ -53,4 +53,37 @@ CREATE TABLE IF NOT EXISTS public.snapshot (
   PRIMARY KEY(persistence_id, sequence_number)
 );
 
---drop table if exists public.akka_projection_offset_store;
\ No newline at end of file
+--drop table if exists public.akka_projection_offset_store;
+
+CREATE TABLE IF NOT EXISTS akka_projection_offset_store (
+  projection_name VARCHAR(255) NOT NULL,
+  projection_key VARCHAR(255) NOT NULL,
+  current_offset VARCHAR(255) NOT NULL,
+  manifest VARCHAR(4) NOT NULL,
+  mergeable BOOLEAN NOT NULL,
+  last_updated BIGINT NOT NULL,
+  PRIMARY KEY(projection_name, projection_key)
+);
+
+CREATE INDEX IF NOT EXISTS projection_name_index ON akka_projection_offset_store (projection_name);
+
+--DROP TABLE IF EXISTS orders_view;
+
+CREATE TABLE IF NOT EXISTS orders_view (
+  order_id VARCHAR(255) NOT NULL,
+  user_id VARCHAR(255),
+  status VARCHAR(32) NOT NULL,
+  items TEXT NOT NULL,
+  is_shipped_successfully BOOLEAN,
+  created_at BIGINT NOT NULL,
+  updated_at BIGINT NOT NULL,
+  PRIMARY KEY(order_id)
+);
+
+-- keyset pagination of GET /orders, newest first with the order id breaking ties, for each combination of filters
+CREATE INDEX IF NOT EXISTS orders_view_created_at_idx ON orders_view (created_at, order_id);
+CREATE INDEX IF NOT EXISTS orders_view_status_created_at_idx ON orders_view (status, created_at, order_id);
+CREATE INDEX IF NOT EXISTS orders_view_user_id_created_at_idx ON orders_view (user_id, created_at, order_id);
+CREATE INDEX IF NOT EXISTS orders_view_user_id_status_created_at_idx ON orders_view (user_id, status, created_at, order_id);
+-- paid orders and orders in fulfilment started again by UnfinishedOrders, a page at a time
+CREATE INDEX IF NOT EXISTS orders_view_status_order_id_idx ON orders_view (status, order_id);
@@ -0,0 +1,82 @@
+-- Journal tables partitioned for journals of billions of events, used instead of event_journal and event_tag
+-- of create_tables.sql when JOURNAL_TABLE=event_journal_partitioned and JOURNAL_TAG_TABLE=event_tag_partitioned are
+-- set (see persistence-postgre.conf). Existing events are copied over with PartitionedJournalMigration.
+-- Requires PostgreSQL 12 or later.
+--
+-- Events are hash partitioned by persistence_id: writes, recovery and the highest sequence number lookup of an
+-- entity filter on persistence_id and touch one partition, with its smaller indexes. Tags are list partitioned by
+-- tag, so eventsByTag reads the partition of its tag only.
+--
+-- A partitioned table only enforces uniqueness on keys that contain its partition key, so ordering has a plain
+-- index, it stays unique through its sequence. For the same reason event_tag cannot have a foreign key to it, a
+-- trigger deletes the tags of deleted events instead of ON DELETE CASCADE.
+
+--DROP TABLE IF EXISTS public.event_journal_partitioned;
+
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned(
+  ordering BIGSERIAL,
+  persistence_id VARCHAR(255) NOT NULL,
+  sequence_number BIGINT NOT NULL,
+  deleted BOOLEAN DEFAULT FALSE NOT NULL,
+
+  writer VARCHAR(255) NOT NULL,
+  write_timestamp BIGINT,
+  adapter_manifest VARCHAR(255),
+
+  event_ser_id INTEGER NOT NULL,
+  event_ser_manifest VARCHAR(255) NOT NULL,
+  event_payload BYTEA NOT NULL,
+
+  meta_ser_id INTEGER,
+  meta_ser_manifest VARCHAR(255),
+  meta_payload BYTEA,
+
+  PRIMARY KEY(persistence_id, sequence_number)
+) PARTITION BY HASH (persistence_id);
+
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_0 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 0);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_1 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 1);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_2 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 2);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_3 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 3);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_4 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 4);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_5 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 5);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_6 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 6);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_7 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 7);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_8 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 8);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_9 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 9);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_10 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 10);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_11 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 11);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_12 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 12);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_13 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 13);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_14 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 14);
+CREATE TABLE IF NOT EXISTS public.event_journal_partitioned_15 PARTITION OF public.event_journal_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER 15);
+
+CREATE INDEX IF NOT EXISTS event_journal_partitioned_ordering_idx ON public.event_journal_partitioned(ordering);
+
+--DROP TABLE IF EXISTS public.event_tag_partitioned;
+
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned(
+    event_id BIGINT,
+    tag VARCHAR(256),
+    PRIMARY KEY(event_id, tag)
+) PARTITION BY LIST (tag);
+
+-- one partition per tag of OrderEntity.TAGS, tags added later land in the default partition until they get their own
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned_orders_0 PARTITION OF public.event_tag_partitioned FOR VALUES IN ('orders-0');
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned_orders_1 PARTITION OF public.event_tag_partitioned FOR VALUES IN ('orders-1');
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned_orders_2 PARTITION OF public.event_tag_partitioned FOR VALUES IN ('orders-2');
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned_orders_3 PARTITION OF public.event_tag_partitioned FOR VALUES IN ('orders-3');
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned_orders_4 PARTITION OF public.event_tag_partitioned FOR VALUES IN ('orders-4');
+CREATE TABLE IF NOT EXISTS public.event_tag_partitioned_default PARTITION OF public.event_tag_partitioned DEFAULT;
+
+CREATE OR REPLACE FUNCTION public.event_journal_partitioned_delete_tags() RETURNS TRIGGER AS $$
+BEGIN
+  DELETE FROM public.event_tag_partitioned WHERE event_id = OLD.ordering;
+  RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS event_journal_partitioned_delete_tags ON public.event_journal_partitioned;
+CREATE TRIGGER event_journal_partitioned_delete_tags
+  AFTER DELETE ON public.event_journal_partitioned
+  FOR EACH ROW EXECUTE FUNCTION public.event_journal_partitioned_delete_tags();
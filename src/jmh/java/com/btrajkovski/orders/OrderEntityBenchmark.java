@@ -0,0 +1,169 @@
+package com.btrajkovski.orders;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.pattern.StatusReply;
+import akka.persistence.testkit.PersistenceTestKitPlugin;
+import akka.persistence.testkit.PersistenceTestKitSnapshotPlugin;
+import akka.persistence.testkit.javadsl.PersistenceTestKit;
+import akka.persistence.typed.PersistenceId;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command and event handlers of {@link OrderEntity} running in an actor against the in-memory persistence testkit
+ * journal, so the numbers include the actor messaging and the ask but no database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderEntityBenchmark {
+    private static final List<String> ITEMS = Arrays.asList("Asus GTX 2060", "Logitech MX518");
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private ActorSystem<HostCommand> system;
+    private PersistenceTestKit persistenceTestKit;
+    private ActorRef<OrderEntity.Command> createdOrder;
+    private String closedOrderId;
+
+    interface HostCommand {
+    }
+
+    static class SpawnEntity implements HostCommand {
+        final String orderId;
+        final ActorRef<ActorRef<OrderEntity.Command>> replyTo;
+
+        SpawnEntity(String orderId, ActorRef<ActorRef<OrderEntity.Command>> replyTo) {
+            this.orderId = orderId;
+            this.replyTo = replyTo;
+        }
+    }
+
+    static class StopEntity implements HostCommand {
+        final ActorRef<OrderEntity.Command> entity;
+
+        StopEntity(ActorRef<OrderEntity.Command> entity) {
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * Stands in for the shard region, spawns entities as its children and stops them again. Passivation requests
+     * of the entities are ignored.
+     */
+    static Behavior<HostCommand> host() {
+        return Behaviors.setup(ctx -> Behaviors.receive(HostCommand.class)
+                .onMessage(SpawnEntity.class, command -> {
+                    command.replyTo.tell(ctx.spawnAnonymous(OrderEntity.create(command.orderId, ctx.getSystem().ignoreRef())));
+                    return Behaviors.same();
+                })
+                .onMessage(StopEntity.class, command -> {
+                    ctx.stop(command.entity);
+                    return Behaviors.same();
+                })
+                .build());
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        system = ActorSystem.create(host(), "order-entity-benchmark",
+                PersistenceTestKitPlugin.getInstance().config()
+                        .withFallback(PersistenceTestKitSnapshotPlugin.config())
+                        .withFallback(ConfigFactory.parseString(
+                                "akka.remote.artery.canonical.port = 0\n" +
+                                        "akka.loglevel = WARNING\n" +
+                                        "akka.persistence.testkit.events.serialize = off\n" +
+                                        "akka.persistence.testkit.snapshots.serialize = off\n" +
+                                        "my-app.fulfilment-provider.shipping-delay = 1h"))
+                        .withFallback(ConfigFactory.load()));
+        persistenceTestKit = PersistenceTestKit.create(system);
+
+        createdOrder = spawnEntity(UUID.randomUUID().toString());
+        ask(createdOrder, replyTo -> new OrderEntity.CreateOrder(ITEMS, "1", replyTo));
+
+        closedOrderId = UUID.randomUUID().toString();
+        persistClosedOrder();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * Every created order stays in the in-memory journal, drop them between iterations
+     */
+    @TearDown(Level.Iteration)
+    public void clearJournal() {
+        persistenceTestKit.clearAll();
+        persistClosedOrder();
+    }
+
+    /**
+     * Activates a new entity and creates the order, like the first command of an order through sharding
+     */
+    @Benchmark
+    public Object createOrder() throws Exception {
+        ActorRef<OrderEntity.Command> entity = spawnEntity(UUID.randomUUID().toString());
+        Object reply = ask(entity, replyTo -> new OrderEntity.CreateOrder(ITEMS, "1", replyTo));
+        system.tell(new StopEntity(entity));
+        return reply;
+    }
+
+    @Benchmark
+    public Object getOrder() throws Exception {
+        return ask(createdOrder, OrderEntity.GetOrder::new);
+    }
+
+    /**
+     * A retried create with the same idempotency key, answered with the existing order without persisting
+     */
+    @Benchmark
+    public Object repeatCreateOfExistingOrder() throws Exception {
+        return ask(createdOrder, replyTo -> new OrderEntity.CreateOrder(ITEMS, "1", replyTo));
+    }
+
+    /**
+     * Activates an entity that replays the full lifecycle of a closed order through the event handlers
+     */
+    @Benchmark
+    public Object recoverClosedOrder() throws Exception {
+        ActorRef<OrderEntity.Command> entity = spawnEntity(closedOrderId);
+        Object reply = ask(entity, OrderEntity.GetOrder::new);
+        system.tell(new StopEntity(entity));
+        return reply;
+    }
+
+    private void persistClosedOrder() {
+        persistenceTestKit.persistForRecovery(
+                PersistenceId.of(OrderEntity.ENTITY_KEY.name(), closedOrderId).id(),
+                Arrays.<Object>asList(
+                        new OrderEntity.OrderCreated(closedOrderId, ITEMS, "1"),
+                        new OrderEntity.OrderPaid(closedOrderId),
+                        new OrderEntity.OrderWasInFulfilment(closedOrderId),
+                        new OrderEntity.OrderClosed(closedOrderId, true)));
+    }
+
+    private ActorRef<OrderEntity.Command> spawnEntity(String orderId) throws Exception {
+        return AskPattern.<HostCommand, ActorRef<OrderEntity.Command>>ask(system,
+                replyTo -> new SpawnEntity(orderId, replyTo), TIMEOUT, system.scheduler())
+                .toCompletableFuture().get();
+    }
+
+    private StatusReply<OrderEntity.OrderSummary> ask(ActorRef<OrderEntity.Command> entity,
+                                                      akka.japi.function.Function<ActorRef<StatusReply<OrderEntity.OrderSummary>>, OrderEntity.Command> command) throws Exception {
+        return AskPattern.ask(entity, command, TIMEOUT, system.scheduler()).toCompletableFuture().get();
+    }
+}
@@ -0,0 +1,38 @@
+package com.btrajkovski.orders;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ids of new orders, generated by as many threads at the same time as the routes create orders. Random UUIDs share
+ * one SecureRandom, time ordered ids one counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class OrderIdBenchmark {
+
+    @Param({"random", "time-ordered"})
+    public String generator;
+
+    private OrderIdGenerator ids;
+
+    @Setup
+    public void setup() {
+        ids = generator.equals("random")
+                ? () -> UUID.randomUUID().toString()
+                : TimeOrderedIdGenerator.forNode(ThreadLocalRandom.current().nextLong());
+    }
+
+    @Benchmark
+    public String nextId() {
+        return ids.nextId();
+    }
+}
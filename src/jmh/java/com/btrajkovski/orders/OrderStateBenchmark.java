@@ -0,0 +1,50 @@
+package com.btrajkovski.orders;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State transitions and summaries of {@link OrderEntity.State}, allocation heavy parts of every event and GetOrder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderStateBenchmark {
+    private static final String ORDER_ID = "5f0c6d2e-8a51-4a8c-9f0e-3b6f8f1d2c4a";
+
+    private OrderEntity.State createdState;
+    private OrderEntity.State paidState;
+    private OrderEntity.State inFulfilmentState;
+
+    @Setup
+    public void setup() {
+        createdState = new OrderEntity.State(Arrays.asList("Asus GTX 2060", "Logitech MX518"), OrderEntity.OrderStatus.CREATED, null, "1");
+        paidState = createdState.markOrderAsPaid();
+        inFulfilmentState = paidState.markOrderAsInFulfilment();
+    }
+
+    @Benchmark
+    public OrderEntity.State markOrderAsPaid() {
+        return createdState.markOrderAsPaid();
+    }
+
+    @Benchmark
+    public OrderEntity.State markOrderAsInFulfilment() {
+        return paidState.markOrderAsInFulfilment();
+    }
+
+    @Benchmark
+    public OrderEntity.State markOrderAsClosed() {
+        return inFulfilmentState.markOrderAsClosed(true);
+    }
+
+    @Benchmark
+    public OrderEntity.OrderSummary toSummary() {
+        return inFulfilmentState.toSummary(ORDER_ID);
+    }
+}
@@ -0,0 +1,106 @@
+package com.btrajkovski.orders;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained per resident entity by {@link OrderEntity.State}, against the layout it had before item names were
+ * shared and the flags packed: a list of the item names decoded from the event, the status and a boxed shipping
+ * result. Each state is built the way recovery builds it, from freshly decoded strings, and the heap used after a
+ * full GC is compared before and after the states are built. The result is the secondary metric bytesPerEntity,
+ * the time is only the time it took to build them. Measured once per fork, the counter adds up over iterations.
+ * <p>
+ * Items are drawn from a catalogue, two to four per order, and every order has its own user id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class OrderStateFootprintBenchmark {
+    private static final int ENTITIES = 200_000;
+
+    @Param({"list", "compact"})
+    public String layout;
+
+    @Param({"1000"})
+    public int catalogueSize;
+
+    private String[] catalogue;
+    private Object[] resident;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerEntity;
+    }
+
+    /**
+     * The layout of the state before, kept here as the baseline
+     */
+    static class ListState {
+        final List<String> items;
+        final OrderEntity.OrderStatus status;
+        final Boolean isShippedSuccessfully;
+        final String userId;
+
+        ListState(List<String> items, OrderEntity.OrderStatus status, Boolean isShippedSuccessfully, String userId) {
+            this.items = items;
+            this.status = status;
+            this.isShippedSuccessfully = isShippedSuccessfully;
+            this.userId = userId;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        catalogue = new String[catalogueSize];
+        for (int i = 0; i < catalogueSize; i++) {
+            catalogue[i] = "Catalogue item " + i;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        resident = null;
+    }
+
+    @Benchmark
+    public Object[] buildResidentStates(Footprint footprint) {
+        long before = usedHeapAfterGc();
+        Object[] states = new Object[ENTITIES];
+        long array = usedHeapAfterGc() - before;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < ENTITIES; i++) {
+            // copies, as decoding an event or snapshot makes for every entity
+            List<String> items = new ArrayList<>();
+            int count = 2 + random.nextInt(3);
+            for (int j = 0; j < count; j++) {
+                items.add(new String(catalogue[random.nextInt(catalogueSize)].toCharArray()));
+            }
+            String userId = UUID.randomUUID().toString();
+            states[i] = layout.equals("list")
+                    ? new ListState(items, OrderEntity.OrderStatus.CLOSED, true, userId)
+                    : new OrderEntity.State(items, OrderEntity.OrderStatus.CREATED, null, userId).markOrderAsClosed(true);
+        }
+        resident = states;
+        footprint.bytesPerEntity = (usedHeapAfterGc() - before - array) / ENTITIES;
+        return resident;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
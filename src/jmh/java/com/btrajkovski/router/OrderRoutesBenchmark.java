@@ -0,0 +1,58 @@
+package com.btrajkovski.router;
+
+import com.btrajkovski.orders.CreateOrderRequest;
+import com.btrajkovski.orders.OrderEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request validation and the JSON (de)serialization the HTTP layer does per request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderRoutesBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private CreateOrderRequest createOrderRequest;
+    private byte[] createOrderRequestJson;
+    private OrderEntity.OrderSummary orderSummary;
+    private byte[] orderSummaryJson;
+
+    @Setup
+    public void setup() throws IOException {
+        createOrderRequest = new CreateOrderRequest(Arrays.asList("Asus GTX 2060", "Logitech MX518", "Intel i3 9100f"), "1");
+        createOrderRequestJson = objectMapper.writeValueAsBytes(createOrderRequest);
+        orderSummary = new OrderEntity.OrderSummary("5f0c6d2e-8a51-4a8c-9f0e-3b6f8f1d2c4a", createOrderRequest.items,
+                OrderEntity.OrderStatus.CLOSED, true, "1");
+        orderSummaryJson = objectMapper.writeValueAsBytes(orderSummary);
+    }
+
+    @Benchmark
+    public CreateOrderRequest validateCreateOrderRequest() {
+        OrderRoutes.validate(createOrderRequest);
+        return createOrderRequest;
+    }
+
+    @Benchmark
+    public CreateOrderRequest readCreateOrderRequest() throws IOException {
+        return objectMapper.readValue(createOrderRequestJson, CreateOrderRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writeOrderSummary() throws IOException {
+        return objectMapper.writeValueAsBytes(orderSummary);
+    }
+
+    @Benchmark
+    public OrderEntity.OrderSummary readOrderSummary() throws IOException {
+        return objectMapper.readValue(orderSummaryJson, OrderEntity.OrderSummary.class);
+    }
+}
@@ -0,0 +1,91 @@
+package com.btrajkovski.serializers;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.SerializerWithStringManifest;
+import akka.serialization.jackson.JacksonCborSerializer;
+import akka.serialization.jackson.JacksonJsonSerializer;
+import com.btrajkovski.orders.OrderEntity;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.NotSerializableException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares jackson-json with jackson-cbor for the entity messages, payload sizes are printed on setup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderSerializationBenchmark {
+
+    @Param({"jackson-json", "jackson-cbor"})
+    public String binding;
+
+    @Param({"OrderCreated", "OrderClosed", "State", "OrderSummary", "CreateOrder"})
+    public String message;
+
+    private ActorSystem system;
+    private SerializerWithStringManifest serializer;
+    private Object payload;
+    private String manifest;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("serialization-benchmark",
+                ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load()));
+        ExtendedActorSystem extendedSystem = (ExtendedActorSystem) system;
+        serializer = binding.equals("jackson-json")
+                ? new JacksonJsonSerializer(extendedSystem, binding)
+                : new JacksonCborSerializer(extendedSystem, binding);
+
+        payload = createMessage(message);
+        manifest = serializer.manifest(payload);
+        bytes = serializer.toBinary(payload);
+
+        System.out.printf("%n%s %s payload size: %d bytes%n", binding, message, bytes.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        system.terminate();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.toBinary(payload);
+    }
+
+    @Benchmark
+    public Object deserialize() throws NotSerializableException {
+        return serializer.fromBinary(bytes, manifest);
+    }
+
+    private Object createMessage(String message) {
+        String orderId = "5f0c6d2e-8a51-4a8c-9f0e-3b6f8f1d2c4a";
+        List<String> items = Arrays.asList("Asus GTX 2060", "Logitech MX518", "Intel i3 9100f");
+
+        switch (message) {
+            case "OrderCreated":
+                return new OrderEntity.OrderCreated(orderId, items, "1");
+            case "OrderClosed":
+                return new OrderEntity.OrderClosed(orderId, true);
+            case "State":
+                return new OrderEntity.State(items, OrderEntity.OrderStatus.CLOSED, true, "1");
+            case "OrderSummary":
+                return new OrderEntity.OrderSummary(orderId, items, OrderEntity.OrderStatus.IN_FULFILLMENT, null, "1");
+            case "CreateOrder":
+                return new OrderEntity.CreateOrder(items, "1", Adapter.toTyped(system.deadLetters()));
+            default:
+                throw new IllegalArgumentException("Unknown message " + message);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.btrajkovski.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and outcome counters of one endpoint, safe to record from any thread
+ */
+class EndpointStats {
+    private final String name;
+    private final Histogram latencies;
+    private final LongAdder successful = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Map<Integer, LongAdder> failedByStatus = new ConcurrentHashMap<>();
+
+    EndpointStats(String name) {
+        this.name = name;
+        // auto resizing, latencies of an open loop are measured from the intended start and can exceed any timeout
+        this.latencies = new ConcurrentHistogram(3);
+    }
+
+    String name() {
+        return name;
+    }
+
+    void recordSuccess(long latencyNanos) {
+        successful.increment();
+        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    void recordFailure(int status, long latencyNanos) {
+        failedByStatus.computeIfAbsent(status, key -> new LongAdder()).increment();
+        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void printSummary(PrintStream out, double durationSeconds) {
+        Map<Integer, Long> failures = new TreeMap<>();
+        failedByStatus.forEach((status, count) -> failures.put(status, count.sum()));
+
+        out.printf("%-8s %9d %8.1f/s %9.2f %9.2f %9.2f %9.2f %9d  %s%n",
+                name,
+                successful.sum(),
+                successful.sum() / durationSeconds,
+                millis(latencies.getValueAtPercentile(50)),
+                millis(latencies.getValueAtPercentile(99)),
+                millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()),
+                timeouts.sum(),
+                failures.isEmpty() ? "-" : failures);
+    }
+
+    static void printHeader(PrintStream out) {
+        out.printf("%-8s %9s %10s %9s %9s %9s %9s %9s  %s%n",
+                "endpoint", "ok", "throughput", "p50 ms", "p99 ms", "p999 ms", "max ms", "timeouts", "failed by status");
+    }
+
+    void writePercentiles(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(name + ".hgrm")))) {
+            // recorded in microseconds, reported in milliseconds
+            latencies.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,238 @@
+package com.btrajkovski.loadtest;
+
+import com.btrajkovski.orders.OrderEntity;
+import com.btrajkovski.orders.OrderIdGenerator;
+import com.btrajkovski.orders.TimeOrderedIdGenerator;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the journal tables of create_tables.sql with the partitioned ones of create_tables_partitioned.sql on
+ * Postgres. Each journal is first filled up to the configured number of events, then measured for write throughput
+ * with concurrent writers and for the latency of eventsByTag queries. Writes and queries run the statements the JDBC
+ * journal and read journal run: an event inserted returning its ordering followed by its tag, and a page of the
+ * events of a tag joined with their tags in an ordering range.
+ * <p>
+ * Writes are measured once for each of id-generators, the persistence ids of new orders being random UUIDs or time
+ * ordered ones, which Postgres adds at the end of the primary key of the plain journal instead of all over it.
+ * <p>
+ * Connects with slick.db of application.conf, settings are read from journal-benchmark.conf and can be overridden
+ * with system properties, e.g. -Djournal-benchmark.rows=200000000
+ */
+public class JournalLayoutBenchmark {
+    private static final String INSERT_EVENT = "INSERT INTO %s (persistence_id, sequence_number, writer, write_timestamp, "
+            + "event_ser_id, event_ser_manifest, event_payload) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING ordering";
+    private static final String INSERT_TAG = "INSERT INTO %s (event_id, tag) VALUES (?, ?)";
+    private static final String EVENTS_BY_TAG = "SELECT j.ordering, j.persistence_id, j.sequence_number, j.event_ser_id, "
+            + "j.event_ser_manifest, j.event_payload FROM %s j JOIN %s t ON j.ordering = t.event_id "
+            + "WHERE j.deleted = false AND t.tag = ? AND j.ordering > ? AND j.ordering <= ? ORDER BY j.ordering LIMIT ?";
+    private static final byte[] PAYLOAD = new byte[60];
+
+    private final Config db;
+    private final Config settings;
+
+    private JournalLayoutBenchmark(Config db, Config settings) {
+        this.db = db;
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.load("journal-benchmark");
+        JournalLayoutBenchmark benchmark = new JournalLayoutBenchmark(config.getConfig("slick.db"), config.getConfig("journal-benchmark"));
+        benchmark.createTables();
+
+        Path reports = Paths.get(benchmark.settings.getString("report-directory"));
+        Duration duration = benchmark.settings.getDuration("duration");
+        for (Config layout : benchmark.settings.getConfigList("layouts")) {
+            String name = layout.getString("name");
+            String journal = layout.getString("journal");
+            String tags = layout.getString("tags");
+
+            benchmark.fill(journal, tags);
+            List<EndpointStats> results = new ArrayList<>();
+            for (String ids : benchmark.settings.getStringList("id-generators")) {
+                System.out.printf("%s: writing with %s ids for %s%n", name, ids, duration);
+                results.add(benchmark.write(name + "-write-" + ids, journal, tags, duration, idGenerator(ids)));
+            }
+            System.out.printf("%s: querying events by tag for %s%n", name, duration);
+            results.add(benchmark.queryByTag(name + "-by-tag", journal, tags, duration));
+
+            System.out.println();
+            EndpointStats.printHeader(System.out);
+            for (EndpointStats result : results) {
+                result.printSummary(System.out, duration.toMillis() / 1000.0);
+            }
+            System.out.println();
+            for (EndpointStats result : results) {
+                result.writePercentiles(reports);
+            }
+        }
+    }
+
+    private static OrderIdGenerator idGenerator(String name) {
+        switch (name) {
+            case "random":
+                return () -> UUID.randomUUID().toString();
+            case "time-ordered":
+                // the same generator the service uses, with a random node instead of the cluster member
+                return TimeOrderedIdGenerator.forNode(ThreadLocalRandom.current().nextLong());
+            default:
+                throw new IllegalArgumentException("Unknown id generator " + name + ", expected random or time-ordered");
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(db.getString("url"), db.getString("user"), db.getString("password"));
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    private void createTables() throws Exception {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            for (String script : new String[]{"ddl-scripts/create_tables.sql", "ddl-scripts/create_tables_partitioned.sql"}) {
+                statement.execute(Files.readString(Path.of(script), StandardCharsets.UTF_8));
+            }
+            connection.commit();
+        }
+    }
+
+    /**
+     * Adds events until the journal has the configured number of them, events-per-entity per persistence id and
+     * spread over the tags of the orders
+     */
+    private void fill(String journal, String tags) throws SQLException {
+        long rows = settings.getLong("rows");
+        long batchSize = settings.getLong("fill-batch-size");
+        int eventsPerEntity = settings.getInt("events-per-entity");
+        String insertEvents = "INSERT INTO " + journal + " (persistence_id, sequence_number, writer, write_timestamp, "
+                + "event_ser_id, event_ser_manifest, event_payload) "
+                + "SELECT 'OrderEntity|fill-' || (n / ?), n % ? + 1, 'fill', 0, 0, 'fill', ? FROM generate_series(?, ?) AS n";
+        String insertTags = "INSERT INTO " + tags + " (event_id, tag) "
+                + "SELECT ordering, 'orders-' || (ordering % " + OrderEntity.TAGS.size() + ") FROM " + journal + " WHERE ordering > ?";
+
+        try (Connection connection = connect();
+             PreparedStatement events = connection.prepareStatement(insertEvents);
+             PreparedStatement eventTags = connection.prepareStatement(insertTags)) {
+            long filled = highestOrdering(connection, journal);
+            while (filled < rows) {
+                long count = Math.min(batchSize, rows - filled);
+                events.setInt(1, eventsPerEntity);
+                events.setInt(2, eventsPerEntity);
+                events.setBytes(3, PAYLOAD);
+                events.setLong(4, filled);
+                events.setLong(5, filled + count - 1);
+                events.executeUpdate();
+                eventTags.setLong(1, filled);
+                eventTags.executeUpdate();
+                connection.commit();
+                filled = highestOrdering(connection, journal);
+                System.out.printf("%s: filled %d of %d events%n", journal, filled, rows);
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ANALYZE " + journal);
+                statement.execute("ANALYZE " + tags);
+            }
+            connection.commit();
+        }
+    }
+
+    private EndpointStats write(String name, String journal, String tags, Duration duration, OrderIdGenerator ids) throws Exception {
+        EndpointStats stats = new EndpointStats(name);
+        int writers = settings.getInt("writers");
+        long end = System.nanoTime() + duration.toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            running.add(executor.submit(() -> {
+                try (Connection connection = connect();
+                     PreparedStatement event = connection.prepareStatement(String.format(INSERT_EVENT, journal));
+                     PreparedStatement tag = connection.prepareStatement(String.format(INSERT_TAG, tags))) {
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        String persistenceId = OrderEntity.ENTITY_KEY.name() + "|" + ids.nextId();
+                        event.setString(1, persistenceId);
+                        event.setLong(2, 1);
+                        event.setString(3, "benchmark");
+                        event.setLong(4, System.currentTimeMillis());
+                        event.setInt(5, 0);
+                        event.setString(6, "benchmark");
+                        event.setBytes(7, PAYLOAD);
+                        long ordering;
+                        try (ResultSet resultSet = event.executeQuery()) {
+                            resultSet.next();
+                            ordering = resultSet.getLong(1);
+                        }
+                        tag.setLong(1, ordering);
+                        tag.setString(2, OrderEntity.TAGS.get(Math.floorMod(persistenceId.hashCode(), OrderEntity.TAGS.size())));
+                        tag.executeUpdate();
+                        connection.commit();
+                        stats.recordSuccess(System.nanoTime() - start);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : running) {
+            writer.get();
+        }
+        executor.shutdown();
+        return stats;
+    }
+
+    /**
+     * Pages of query-size events of a random tag, starting at random orderings over the whole journal
+     */
+    private EndpointStats queryByTag(String name, String journal, String tags, Duration duration) throws SQLException {
+        EndpointStats stats = new EndpointStats(name);
+        int querySize = settings.getInt("query-size");
+        long end = System.nanoTime() + duration.toNanos();
+        try (Connection connection = connect();
+             PreparedStatement query = connection.prepareStatement(String.format(EVENTS_BY_TAG, journal, tags))) {
+            long highest = highestOrdering(connection, journal);
+            while (System.nanoTime() < end) {
+                long start = System.nanoTime();
+                query.setString(1, OrderEntity.TAGS.get(ThreadLocalRandom.current().nextInt(OrderEntity.TAGS.size())));
+                query.setLong(2, ThreadLocalRandom.current().nextLong(Math.max(1, highest - querySize * 10L)));
+                query.setLong(3, highest);
+                query.setInt(4, querySize);
+                try (ResultSet resultSet = query.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getBytes("event_payload");
+                    }
+                }
+                connection.commit();
+                stats.recordSuccess(System.nanoTime() - start);
+            }
+        }
+        return stats;
+    }
+
+    private static long highestOrdering(Connection connection, String journal) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(ordering), 0) FROM " + journal)) {
+            resultSet.next();
+            long highest = resultSet.getLong(1);
+            connection.commit();
+            return highest;
+        }
+    }
+}
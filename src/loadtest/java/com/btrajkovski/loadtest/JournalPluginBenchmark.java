@@ -0,0 +1,211 @@
+package com.btrajkovski.loadtest;
+
+import akka.actor.typed.ActorSystem;
+import akka.pattern.StatusReply;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import com.btrajkovski.orders.OrderEntity;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Persist latency and recovery time of the order entities with the JDBC journal and with the embedded LevelDB
+ * journal of persistence-leveldb.conf, with and without fsync. For each journal a fixed number of clients each
+ * activate a new entity and create its order (closed loop), then the actor system is restarted and the created
+ * orders are recovered, each by starting its entity and getting the order.
+ * <p>
+ * The JDBC journal connects with slick.db of application.conf, LevelDB writes to a new temporary directory per
+ * journal. Settings are read from journal-plugin-benchmark.conf and can be overridden with system properties,
+ * e.g. -Djournal-plugin-benchmark.concurrency=64
+ */
+public class JournalPluginBenchmark {
+    private static final List<String> ITEMS = Arrays.asList("Asus GTX 2060", "Logitech MX518");
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final ActorSystem<OrderEntityHost.Command> system;
+
+    private JournalPluginBenchmark(ActorSystem<OrderEntityHost.Command> system) {
+        this.system = system;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.load("journal-plugin-benchmark");
+        Config settings = config.getConfig("journal-plugin-benchmark");
+        Duration warmup = settings.getDuration("warmup");
+        Duration duration = settings.getDuration("duration");
+        int concurrency = settings.getInt("concurrency");
+        int recoveredOrders = settings.getInt("recovered-orders");
+        Path reportDirectory = Paths.get(settings.getString("report-directory"));
+
+        // measured seconds of each result, the duration for persists and the time to recover them all for recovery
+        Map<EndpointStats, Double> results = new LinkedHashMap<>();
+        for (Config journal : settings.getConfigList("journals")) {
+            String name = journal.getString("name");
+            Path directory = Files.createTempDirectory("journal-plugin-benchmark");
+            Config journalConfig = ConfigFactory.empty()
+                    .withValue("akka.persistence.journal.plugin", journal.getValue("journal"))
+                    .withValue("akka.persistence.snapshot-store.plugin", journal.getValue("snapshot-store"))
+                    .withValue("akka.persistence.journal.leveldb.fsync", journal.getValue("fsync"))
+                    .withValue("akka.persistence.journal.leveldb.dir",
+                            ConfigValueFactory.fromAnyRef(directory.resolve("journal").toString()))
+                    .withValue("akka.persistence.snapshot-store.local.dir",
+                            ConfigValueFactory.fromAnyRef(directory.resolve("snapshots").toString()))
+                    .withFallback(config);
+            try {
+                Queue<String> warmupOrders = new ConcurrentLinkedQueue<>();
+                Queue<String> measuredOrders = new ConcurrentLinkedQueue<>();
+                EndpointStats persist = new EndpointStats("persist-" + name);
+                EndpointStats recover = new EndpointStats("recover-" + name);
+
+                ActorSystem<OrderEntityHost.Command> writing =
+                        ActorSystem.create(OrderEntityHost.create(), "journal-plugin-benchmark", journalConfig);
+                try {
+                    if (journal.getString("journal").equals("jdbc-journal")) {
+                        SchemaUtils.createIfNotExists(writing).toCompletableFuture().get(30, SECONDS);
+                    }
+                    JournalPluginBenchmark benchmark = new JournalPluginBenchmark(writing);
+                    System.out.printf("%s: warming up for %s with %d clients%n", name, warmup, concurrency);
+                    benchmark.createOrders(new EndpointStats(name), warmupOrders, concurrency, warmup);
+                    System.out.printf("%s: measuring persists for %s%n", name, duration);
+                    benchmark.createOrders(persist, measuredOrders, concurrency, duration);
+                } finally {
+                    terminate(writing);
+                }
+
+                // a new actor system, so nothing of the orders is left in memory but what the journal caches itself
+                ActorSystem<OrderEntityHost.Command> recovering =
+                        ActorSystem.create(OrderEntityHost.create(), "journal-plugin-benchmark", journalConfig);
+                long recoveryNanos;
+                try {
+                    JournalPluginBenchmark benchmark = new JournalPluginBenchmark(recovering);
+                    benchmark.recoverOrders(new EndpointStats(name), limit(warmupOrders, recoveredOrders), concurrency);
+                    List<String> orders = limit(measuredOrders, recoveredOrders);
+                    System.out.printf("%s: measuring recovery of %d orders%n", name, orders.size());
+                    long start = System.nanoTime();
+                    benchmark.recoverOrders(recover, orders, concurrency);
+                    recoveryNanos = System.nanoTime() - start;
+                } finally {
+                    terminate(recovering);
+                }
+
+                persist.writePercentiles(reportDirectory);
+                recover.writePercentiles(reportDirectory);
+                results.put(persist, duration.toNanos() / 1e9);
+                results.put(recover, recoveryNanos / 1e9);
+            } finally {
+                delete(directory);
+            }
+        }
+
+        System.out.println();
+        EndpointStats.printHeader(System.out);
+        results.forEach((stats, seconds) -> stats.printSummary(System.out, seconds));
+    }
+
+    private static List<String> limit(Queue<String> orders, int max) {
+        List<String> limited = new ArrayList<>();
+        Iterator<String> iterator = orders.iterator();
+        while (iterator.hasNext() && limited.size() < max) {
+            limited.add(iterator.next());
+        }
+        return limited;
+    }
+
+    private static void terminate(ActorSystem<?> system) throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(30, SECONDS);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private void createOrders(EndpointStats stats, Queue<String> created, int concurrency, Duration duration)
+            throws InterruptedException {
+        long end = System.nanoTime() + duration.toNanos();
+        CountDownLatch clients = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            createOrders(stats, created, end, clients);
+        }
+        clients.await(duration.toNanos() + TIMEOUT.toNanos() * 2, TimeUnit.NANOSECONDS);
+    }
+
+    private void createOrders(EndpointStats stats, Queue<String> created, long end, CountDownLatch done) {
+        if (System.nanoTime() >= end) {
+            done.countDown();
+            return;
+        }
+        String orderId = UUID.randomUUID().toString();
+        long start = System.nanoTime();
+        OrderEntityHost.ask(system, orderId,
+                        replyTo -> new OrderEntity.CreateOrder(ITEMS, "journal-plugin-benchmark", replyTo), TIMEOUT)
+                .whenComplete((reply, error) -> {
+                    record(stats, start, reply, error);
+                    if (error == null && reply.isSuccess()) {
+                        created.add(orderId);
+                    }
+                    createOrders(stats, created, end, done);
+                });
+    }
+
+    private void recoverOrders(EndpointStats stats, List<String> orders, int concurrency) throws InterruptedException {
+        Iterator<String> remaining = orders.iterator();
+        CountDownLatch clients = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            recoverOrders(stats, remaining, clients);
+        }
+        clients.await(orders.size() * TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void recoverOrders(EndpointStats stats, Iterator<String> remaining, CountDownLatch done) {
+        String orderId;
+        synchronized (remaining) {
+            orderId = remaining.hasNext() ? remaining.next() : null;
+        }
+        if (orderId == null) {
+            done.countDown();
+            return;
+        }
+        long start = System.nanoTime();
+        OrderEntityHost.ask(system, orderId, OrderEntity.GetOrder::new, TIMEOUT)
+                .whenComplete((reply, error) -> {
+                    record(stats, start, reply, error);
+                    recoverOrders(stats, remaining, done);
+                });
+    }
+
+    private static void record(EndpointStats stats, long start, StatusReply<?> reply, Throwable error) {
+        if (error != null) {
+            stats.recordTimeout();
+        } else if (reply.isError()) {
+            stats.recordFailure(500, System.nanoTime() - start);
+        } else {
+            stats.recordSuccess(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.btrajkovski.loadtest;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.japi.function.Function;
+import akka.pattern.StatusReply;
+import com.btrajkovski.orders.OrderEntity;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Stands in for the shard region in the journal benchmarks, spawns order entities as its children without a
+ * cluster and stops them once they answered a command
+ */
+class OrderEntityHost {
+    private OrderEntityHost() {
+    }
+
+    interface Command {
+    }
+
+    static class SpawnEntity implements Command {
+        final String orderId;
+        final ActorRef<ActorRef<OrderEntity.Command>> replyTo;
+
+        SpawnEntity(String orderId, ActorRef<ActorRef<OrderEntity.Command>> replyTo) {
+            this.orderId = orderId;
+            this.replyTo = replyTo;
+        }
+    }
+
+    static class StopEntity implements Command {
+        final ActorRef<OrderEntity.Command> entity;
+
+        StopEntity(ActorRef<OrderEntity.Command> entity) {
+            this.entity = entity;
+        }
+    }
+
+    static Behavior<Command> create() {
+        return Behaviors.setup(ctx -> Behaviors.receive(Command.class)
+                .onMessage(SpawnEntity.class, command -> {
+                    command.replyTo.tell(ctx.spawnAnonymous(OrderEntity.create(command.orderId, ctx.getSystem().ignoreRef())));
+                    return Behaviors.same();
+                })
+                .onMessage(StopEntity.class, command -> {
+                    ctx.stop(command.entity);
+                    return Behaviors.same();
+                })
+                .build());
+    }
+
+    /**
+     * Starts the entity of the order, which recovers it from the journal, sends it the command and stops it
+     * once it replied
+     */
+    static CompletionStage<StatusReply<OrderEntity.OrderSummary>> ask(
+            ActorSystem<Command> system, String orderId,
+            Function<ActorRef<StatusReply<OrderEntity.OrderSummary>>, OrderEntity.Command> command, Duration timeout) {
+        return AskPattern.<Command, ActorRef<OrderEntity.Command>>ask(system,
+                        replyTo -> new SpawnEntity(orderId, replyTo), timeout, system.scheduler())
+                .thenCompose(entity -> AskPattern.ask(entity, command, timeout, system.scheduler())
+                        .whenComplete((reply, error) -> system.tell(new StopEntity(entity))));
+    }
+}
@@ -0,0 +1,207 @@
+package com.btrajkovski.loadtest;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import com.btrajkovski.OrdersApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Starts the orders service on an in-memory H2 database and drives create, confirm and get requests against its
+ * HTTP API. Orders are started at a fixed rate no matter how long the responses take (open loop), and create latency
+ * is measured from the time the order was due to be started, so a stalled server shows up in the percentiles.
+ * Confirm and get follow the create of the same order and are measured from when they are sent.
+ * <p>
+ * Settings are read from loadtest.conf and can be overridden with system properties, e.g. -Dloadtest.rate=500
+ */
+public class OrdersLoadTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String CREATE_ORDER_BODY = "{\"userId\": \"load-test\", \"items\": [\"Asus GTX 2060\", \"Logitech MX518\"]}";
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private OrdersLoadTest(Config config) {
+        this.baseUrl = config.getString("base-url");
+        this.requestTimeout = config.getDuration("request-timeout");
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(requestTimeout)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.load("loadtest");
+        Config settings = config.getConfig("loadtest");
+        ActorSystem<NotUsed> system = ActorSystem.create(OrdersApplication.rootBehavior(), "OrdersAkkaHttpServer", config);
+
+        try {
+            createTables(system);
+
+            OrdersLoadTest loadTest = new OrdersLoadTest(settings);
+            loadTest.awaitReady(Duration.ofMinutes(1));
+
+            int rate = settings.getInt("rate");
+            System.out.printf("Warming up for %s at %d orders/s%n", settings.getDuration("warmup"), rate);
+            loadTest.runPhase(rate, settings.getDuration("warmup"));
+
+            Duration duration = settings.getDuration("duration");
+            System.out.printf("Measuring for %s at %d orders/s%n", duration, rate);
+            List<EndpointStats> stats = loadTest.runPhase(rate, duration);
+
+            System.out.println();
+            EndpointStats.printHeader(System.out);
+            for (EndpointStats endpointStats : stats) {
+                endpointStats.printSummary(System.out, duration.toMillis() / 1000.0);
+                endpointStats.writePercentiles(Paths.get(settings.getString("report-directory")));
+            }
+        } finally {
+            system.terminate();
+        }
+    }
+
+    private static void createTables(ActorSystem<?> system) throws Exception {
+        SchemaUtils.createIfNotExists(system).toCompletableFuture().get(30, SECONDS);
+        String script = Files.lines(Path.of("ddl-scripts/create_tables.sql"), StandardCharsets.UTF_8)
+                .collect(Collectors.joining("\n"));
+        SchemaUtils.applyScript(script, system).toCompletableFuture().get(30, SECONDS);
+    }
+
+    /**
+     * The service is ready once the cluster is formed and an unknown order is answered by its entity
+     */
+    private void awaitReady(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                HttpResponse<String> response = client.send(request("/orders/" + UUID.randomUUID()).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 400) {
+                    return;
+                }
+            } catch (IOException e) {
+                // server not bound yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Orders service was not ready within " + timeout);
+    }
+
+    /**
+     * Starts orders at the given rate for the given duration and waits for all of them to complete
+     */
+    private List<EndpointStats> runPhase(int rate, Duration duration) throws InterruptedException {
+        EndpointStats create = new EndpointStats("create");
+        EndpointStats confirm = new EndpointStats("confirm");
+        EndpointStats get = new EndpointStats("get");
+
+        long intervalNanos = SECONDS.toNanos(1) / rate;
+        long totalOrders = duration.toNanos() / intervalNanos;
+        long start = System.nanoTime();
+        AtomicInteger started = new AtomicInteger();
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(() -> {
+            // catch up with orders that are due in case the scheduler thread fell behind
+            long due = Math.min(totalOrders, (System.nanoTime() - start) / intervalNanos + 1);
+            while (started.get() < due) {
+                long intendedStart = start + started.getAndIncrement() * intervalNanos;
+                runOrderFlow(intendedStart, create, confirm, get);
+            }
+        }, 0, intervalNanos, TimeUnit.NANOSECONDS);
+
+        long end = start + duration.toNanos();
+        while (System.nanoTime() < end) {
+            Thread.sleep(100);
+        }
+        scheduler.shutdownNow();
+
+        long drainDeadline = System.nanoTime() + requestTimeout.toNanos() * 3;
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        return Arrays.asList(create, confirm, get);
+    }
+
+    private void runOrderFlow(long intendedStart, EndpointStats create, EndpointStats confirm, EndpointStats get) {
+        HttpRequest createRequest = request("/orders")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(CREATE_ORDER_BODY))
+                .build();
+
+        send(createRequest, intendedStart, 201, create)
+                .thenCompose(createResponse -> {
+                    if (createResponse == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    String orderId = readOrderId(createResponse.body());
+                    return send(request("/orders/" + orderId + "/confirm").GET().build(), System.nanoTime(), 200, confirm)
+                            .thenCompose(confirmResponse -> confirmResponse == null
+                                    ? CompletableFuture.completedFuture(null)
+                                    : send(request("/orders/" + orderId).GET().build(), System.nanoTime(), 200, get));
+                });
+    }
+
+    /**
+     * Completes with the response if it had the expected status, otherwise with null after recording the failure
+     */
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request, long startNanos, int expectedStatus, EndpointStats stats) {
+        inFlight.incrementAndGet();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    inFlight.decrementAndGet();
+                    long latency = System.nanoTime() - startNanos;
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        if (cause instanceof HttpTimeoutException) {
+                            stats.recordTimeout();
+                        } else {
+                            // connection failures are reported with status 0
+                            stats.recordFailure(0, latency);
+                        }
+                        return null;
+                    }
+                    if (response.statusCode() != expectedStatus) {
+                        stats.recordFailure(response.statusCode(), latency);
+                        return null;
+                    }
+                    stats.recordSuccess(latency);
+                    return response;
+                });
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(requestTimeout);
+    }
+
+    private static String readOrderId(String body) {
+        try {
+            return objectMapper.readTree(body).get("id").asText();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unexpected create order response " + body, e);
+        }
+    }
+}
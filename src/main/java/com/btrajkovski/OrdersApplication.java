@@ -9,10 +9,16 @@ import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.server.Route;
 import akka.management.cluster.bootstrap.ClusterBootstrap;
 import akka.management.javadsl.AkkaManagement;
+import akka.stream.ActorAttributes;
+import com.btrajkovski.metrics.ShardingMetrics;
+import com.btrajkovski.orders.FulfilmentProvider;
 import com.btrajkovski.orders.OrderEntity;
+import com.btrajkovski.projection.OrdersViewProjection;
+import com.btrajkovski.projection.UnfinishedOrders;
 import com.btrajkovski.router.OrderRoutes;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.concurrent.CompletionStage;
 
 //#main-class
@@ -20,7 +26,10 @@ public class OrdersApplication {
     // #start-http-server
     static void startHttpServer(Route route, ActorSystem<?> system) {
         CompletionStage<ServerBinding> futureBinding =
-                Http.get(system).newServerAt("localhost", 8080).bind(route);
+                Http.get(system).newServerAt(
+                                system.settings().config().getString("my-app.http.host"),
+                                system.settings().config().getInt("my-app.http.port"))
+                        .bindFlow(route.flow(system).withAttributes(ActorAttributes.dispatcher(OrderRoutes.HTTP_DISPATCHER)));
 
         futureBinding.whenComplete((binding, exception) -> {
             if (binding != null) {
@@ -38,21 +47,31 @@ public class OrdersApplication {
 
     public static void main(String[] args) {
         //#server-bootstrapping
-        Behavior<NotUsed> rootBehavior = Behaviors.setup(context -> {
+        // boot up server using the route as defined below
+        ActorSystem.create(rootBehavior(), "OrdersAkkaHttpServer");
+        //#server-bootstrapping
+    }
+
+    public static Behavior<NotUsed> rootBehavior() {
+        return Behaviors.setup(context -> {
 
             AkkaManagement.get(context.getSystem()).start();
             ClusterBootstrap.get(context.getSystem()).start();
             OrderEntity.init(context.getSystem());
+            FulfilmentProvider.init(context.getSystem());
+            OrdersViewProjection.init(context.getSystem());
+            UnfinishedOrders.init(context.getSystem());
+            context.spawn(
+                    ShardingMetrics.create(
+                            context.getSystem().settings().config().getDuration("my-app.metrics.sharding-interval"),
+                            Arrays.asList(OrderEntity.ENTITY_KEY, FulfilmentProvider.ENTITY_KEY)),
+                    "sharding-metrics");
 
             var orderRoutes = new OrderRoutes(context.getSystem());
             startHttpServer(orderRoutes.userRoutes(), context.getSystem());
 
             return Behaviors.empty();
         });
-
-        // boot up server using the route as defined below
-        ActorSystem.create(rootBehavior, "OrdersAkkaHttpServer");
-        //#server-bootstrapping
     }
 
 }
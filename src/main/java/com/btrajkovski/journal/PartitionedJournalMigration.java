@@ -0,0 +1,126 @@
+package com.btrajkovski.journal;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Copies the events and tags of event_journal and event_tag to the partitioned tables of
+ * ddl-scripts/create_tables_partitioned.sql, in batches of ordering ranges, one transaction each.
+ * <ul>
+ *     <li>{@code copy} can run while the service writes and can be stopped and run again, each run continues
+ *     from the highest event copied. It stops recopy-margin events short of the newest one, because writes in
+ *     flight may still commit below it.</li>
+ *     <li>{@code finish} runs once writes are stopped. It copies the rest, starting recopy-margin events before the
+ *     highest event copied, and moves the ordering sequence of the partitioned journal past the copied events.
+ *     The service is then started with JOURNAL_TABLE and JOURNAL_TAG_TABLE set to the partitioned tables.</li>
+ * </ul>
+ * Events already copied are skipped, so copying a range twice is harmless. Connection settings are the ones of
+ * the journal, slick.db of application.conf.
+ */
+public class PartitionedJournalMigration {
+    private static final Logger log = LoggerFactory.getLogger(PartitionedJournalMigration.class);
+
+    private static final String JOURNAL_COLUMNS = "ordering, persistence_id, sequence_number, deleted, writer, write_timestamp, "
+            + "adapter_manifest, event_ser_id, event_ser_manifest, event_payload, meta_ser_id, meta_ser_manifest, meta_payload";
+
+    private static final String COPY_EVENTS = "INSERT INTO event_journal_partitioned (" + JOURNAL_COLUMNS + ") "
+            + "SELECT " + JOURNAL_COLUMNS + " FROM event_journal WHERE ordering > ? AND ordering <= ? "
+            + "ON CONFLICT DO NOTHING";
+
+    private static final String COPY_TAGS = "INSERT INTO event_tag_partitioned (event_id, tag) "
+            + "SELECT event_id, tag FROM event_tag WHERE event_id > ? AND event_id <= ? "
+            + "ON CONFLICT DO NOTHING";
+
+    private final Connection connection;
+    private final long batchSize;
+    private final long recopyMargin;
+
+    PartitionedJournalMigration(Connection connection, Config config) {
+        this.connection = connection;
+        this.batchSize = config.getLong("batch-size");
+        this.recopyMargin = config.getLong("recopy-margin");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1 || !(args[0].equals("copy") || args[0].equals("finish"))) {
+            System.err.println("Usage: PartitionedJournalMigration copy|finish");
+            System.exit(2);
+        }
+
+        Config config = ConfigFactory.load();
+        Config db = config.getConfig("slick.db");
+        try (Connection connection = DriverManager.getConnection(db.getString("url"), db.getString("user"), db.getString("password"))) {
+            connection.setAutoCommit(false);
+            PartitionedJournalMigration migration =
+                    new PartitionedJournalMigration(connection, config.getConfig("my-app.journal-migration"));
+            if (args[0].equals("copy")) {
+                migration.copy();
+            } else {
+                migration.finish();
+            }
+        }
+    }
+
+    void copy() throws SQLException {
+        long copied = highestOrdering("event_journal_partitioned");
+        long until = highestOrdering("event_journal") - recopyMargin;
+        copyRange(copied, until);
+    }
+
+    void finish() throws SQLException {
+        long copied = highestOrdering("event_journal_partitioned");
+        copyRange(Math.max(0, copied - recopyMargin), highestOrdering("event_journal"));
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT setval(pg_get_serial_sequence('event_journal_partitioned', 'ordering'), "
+                        + "(SELECT COALESCE(MAX(ordering), 0) + 1 FROM event_journal_partitioned), false)")) {
+            statement.execute();
+        }
+        connection.commit();
+        log.info("Journal copied, the ordering of event_journal_partitioned continues after {}", highestOrdering("event_journal_partitioned"));
+    }
+
+    private void copyRange(long from, long until) throws SQLException {
+        if (from >= until) {
+            log.info("Nothing to copy, events up to {} are copied already", from);
+            return;
+        }
+        log.info("Copying events with ordering from {} to {}", from + 1, until);
+        try (PreparedStatement events = connection.prepareStatement(COPY_EVENTS);
+             PreparedStatement tags = connection.prepareStatement(COPY_TAGS)) {
+            long start = System.nanoTime();
+            for (long lower = from; lower < until; lower += batchSize) {
+                long upper = Math.min(lower + batchSize, until);
+                events.setLong(1, lower);
+                events.setLong(2, upper);
+                int copiedEvents = events.executeUpdate();
+                tags.setLong(1, lower);
+                tags.setLong(2, upper);
+                int copiedTags = tags.executeUpdate();
+                connection.commit();
+
+                double seconds = (System.nanoTime() - start) / 1e9;
+                log.info("Copied up to ordering {} ({} events, {} tags in this batch), {} events/s",
+                        upper, copiedEvents, copiedTags, String.format("%.0f", (upper - from) / seconds));
+            }
+        }
+    }
+
+    private long highestOrdering(String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MAX(ordering), 0) FROM " + table);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            long highest = resultSet.getLong(1);
+            connection.commit();
+            return highest;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.btrajkovski.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Queue length, active threads and pool size of the executors of the dispatchers that use
+ * {@link InstrumentedExecutorConfigurator}, read when the metrics are scraped
+ */
+public class DispatcherMetrics extends Collector {
+    private static final DispatcherMetrics instance = new DispatcherMetrics().register();
+
+    private final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    private DispatcherMetrics() {
+    }
+
+    /**
+     * Reports the executor under the dispatcher id, replacing the executor the dispatcher shut down before
+     */
+    static ExecutorService track(String dispatcher, ExecutorService executor) {
+        instance.executors.put(dispatcher, executor);
+        return executor;
+    }
+
+    static ExecutorService tracked(String dispatcher) {
+        return instance.executors.get(dispatcher);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<String> labelNames = Collections.singletonList("dispatcher");
+        GaugeMetricFamily queued = new GaugeMetricFamily("dispatcher_queued_tasks",
+                "Tasks waiting in the queues of the dispatcher for a thread.", labelNames);
+        GaugeMetricFamily active = new GaugeMetricFamily("dispatcher_active_threads",
+                "Threads of the dispatcher that are running tasks.", labelNames);
+        GaugeMetricFamily poolSize = new GaugeMetricFamily("dispatcher_pool_size",
+                "Threads started by the dispatcher.", labelNames);
+
+        executors.forEach((dispatcher, executor) -> {
+            List<String> labels = Collections.singletonList(dispatcher);
+            if (executor instanceof ForkJoinPool) {
+                ForkJoinPool pool = (ForkJoinPool) executor;
+                queued.addMetric(labels, pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+                active.addMetric(labels, pool.getActiveThreadCount());
+                poolSize.addMetric(labels, pool.getPoolSize());
+            } else if (executor instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+                queued.addMetric(labels, pool.getQueue().size());
+                active.addMetric(labels, pool.getActiveCount());
+                poolSize.addMetric(labels, pool.getPoolSize());
+            }
+        });
+        return Arrays.asList(queued, active, poolSize);
+    }
+}
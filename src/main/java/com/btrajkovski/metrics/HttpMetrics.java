@@ -0,0 +1,57 @@
+package com.btrajkovski.metrics;
+
+import akka.http.javadsl.server.Complete;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.server.RouteResult;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+import java.util.function.Supplier;
+
+import static akka.http.javadsl.server.Directives.*;
+
+/**
+ * Request count and latency per route. Latency is measured until the response starts, streamed response
+ * bodies are not included.
+ */
+public final class HttpMetrics {
+    private static final Counter REQUESTS = Counter.build()
+            .name("http_requests_total")
+            .help("HTTP requests by route and response status.")
+            .labelNames("route", "status")
+            .register();
+
+    private static final Histogram LATENCY = Histogram.build()
+            .name("http_request_duration_seconds")
+            .help("Time until the response of an HTTP request starts, by route.")
+            .labelNames("route")
+            .buckets(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+            .register();
+
+    private HttpMetrics() {
+    }
+
+    /**
+     * Records the requests completed by the inner route. Exceptions and rejections must be handled inside of it,
+     * requests that fail or are rejected are counted with status "failed" and "rejected".
+     */
+    public static Route timed(String route, Supplier<Route> inner) {
+        return extractRequestContext(ctx -> {
+            long start = System.nanoTime();
+            return mapRouteResultFuture(result -> result.whenComplete((routeResult, error) -> {
+                LATENCY.labels(route).observe((System.nanoTime() - start) / 1e9);
+                REQUESTS.labels(route, status(routeResult, error)).inc();
+            }), inner);
+        });
+    }
+
+    private static String status(RouteResult result, Throwable error) {
+        if (error != null) {
+            return "failed";
+        }
+        if (result instanceof Complete) {
+            return String.valueOf(((Complete) result).getResponse().status().intValue());
+        }
+        return "rejected";
+    }
+}
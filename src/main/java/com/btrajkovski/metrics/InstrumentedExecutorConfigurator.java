@@ -0,0 +1,40 @@
+package com.btrajkovski.metrics;
+
+import akka.dispatch.DispatcherPrerequisites;
+import akka.dispatch.ExecutorServiceConfigurator;
+import akka.dispatch.ExecutorServiceFactory;
+import akka.dispatch.ForkJoinExecutorConfigurator;
+import akka.dispatch.ThreadPoolExecutorConfigurator;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor of a dispatcher that reports its queue to {@link DispatcherMetrics}. Used as the executor of a
+ * dispatcher, with instrumented-executor set to the executor it wraps, fork-join-executor or thread-pool-executor,
+ * configured as usual in the section of that name.
+ */
+public class InstrumentedExecutorConfigurator extends ExecutorServiceConfigurator {
+    private final ExecutorServiceConfigurator delegate;
+
+    public InstrumentedExecutorConfigurator(Config config, DispatcherPrerequisites prerequisites) {
+        super(config, prerequisites);
+        String executor = config.getString("instrumented-executor");
+        switch (executor) {
+            case "fork-join-executor":
+                delegate = new ForkJoinExecutorConfigurator(config.getConfig(executor), prerequisites);
+                break;
+            case "thread-pool-executor":
+                delegate = new ThreadPoolExecutorConfigurator(config.getConfig(executor), prerequisites);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported instrumented-executor " + executor);
+        }
+    }
+
+    @Override
+    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory threadFactory) {
+        ExecutorServiceFactory factory = delegate.createExecutorServiceFactory(id, threadFactory);
+        return () -> DispatcherMetrics.track(id, factory.createExecutorService());
+    }
+}
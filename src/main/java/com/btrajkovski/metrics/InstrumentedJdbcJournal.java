@@ -0,0 +1,52 @@
+package com.btrajkovski.metrics;
+
+import akka.persistence.AtomicWrite;
+import akka.persistence.jdbc.journal.JdbcAsyncWriteJournal;
+import com.typesafe.config.Config;
+import io.prometheus.client.Histogram;
+import scala.collection.immutable.Seq;
+import scala.concurrent.Future;
+import scala.jdk.javaapi.CollectionConverters;
+import scala.jdk.javaapi.FutureConverters;
+import scala.runtime.BoxedUnit;
+import scala.util.Try;
+import slick.jdbc.hikaricp.HikariCPJdbcDataSource;
+
+/**
+ * The JDBC journal, recording how long writes take and how many events they contain. Its connection pool is
+ * tracked by {@link PoolMetrics}.
+ */
+public class InstrumentedJdbcJournal extends JdbcAsyncWriteJournal {
+    private static final Histogram WRITE_LATENCY = Histogram.build()
+            .name("journal_write_duration_seconds")
+            .help("Time to write the events of one persist to the journal.")
+            .buckets(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5)
+            .register();
+
+    private static final Histogram WRITE_EVENTS = Histogram.build()
+            .name("journal_write_events")
+            .help("Number of events written to the journal at once.")
+            .exponentialBuckets(1, 2, 10)
+            .register();
+
+    public InstrumentedJdbcJournal(Config config) {
+        super(config);
+        if (db().source() instanceof HikariCPJdbcDataSource) {
+            PoolMetrics.track(((HikariCPJdbcDataSource) db().source()).ds());
+        }
+    }
+
+    @Override
+    public Future<Seq<Try<BoxedUnit>>> asyncWriteMessages(Seq<AtomicWrite> messages) {
+        long start = System.nanoTime();
+        int events = 0;
+        for (AtomicWrite write : CollectionConverters.asJava(messages)) {
+            events += write.size();
+        }
+        WRITE_EVENTS.observe(events);
+
+        Future<Seq<Try<BoxedUnit>>> written = super.asyncWriteMessages(messages);
+        FutureConverters.asJava(written).whenComplete((result, error) -> WRITE_LATENCY.observe((System.nanoTime() - start) / 1e9));
+        return written;
+    }
+}
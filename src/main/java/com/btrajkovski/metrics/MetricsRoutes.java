@@ -0,0 +1,64 @@
+package com.btrajkovski.metrics;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.ExtensionId;
+import akka.actor.ExtensionIdProvider;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.management.javadsl.ManagementRouteProvider;
+import akka.management.javadsl.ManagementRouteProviderSettings;
+import akka.util.ByteString;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Exposes the metrics of the default Prometheus registry in the text format under /metrics of the
+ * Akka Management HTTP endpoint. Registered with akka.management.http.routes.
+ */
+public class MetricsRoutes extends AllDirectives implements ManagementRouteProvider {
+    private static final ContentType CONTENT_TYPE = ContentTypes.parse(TextFormat.CONTENT_TYPE_004);
+
+    private final CollectorRegistry registry;
+
+    private MetricsRoutes(CollectorRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Route routes(ManagementRouteProviderSettings settings) {
+        return path("metrics", () ->
+                get(() -> complete(HttpEntities.create(CONTENT_TYPE, scrape()))));
+    }
+
+    private ByteString scrape() {
+        StringWriter writer = new StringWriter();
+        try {
+            TextFormat.write004(writer, registry.metricFamilySamples());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ByteString.fromString(writer.toString());
+    }
+
+    public static class Id extends AbstractExtensionId<MetricsRoutes> implements ExtensionIdProvider {
+        private static final Id instance = new Id();
+
+        @Override
+        public ExtensionId<MetricsRoutes> lookup() {
+            return instance;
+        }
+
+        @Override
+        public MetricsRoutes createExtension(ExtendedActorSystem system) {
+            return new MetricsRoutes(CollectorRegistry.defaultRegistry);
+        }
+    }
+}
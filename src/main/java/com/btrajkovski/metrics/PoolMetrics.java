@@ -0,0 +1,20 @@
+package com.btrajkovski.metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.prometheus.PrometheusMetricsTrackerFactory;
+
+/**
+ * Active, idle and pending connections and connection wait times of HikariCP pools, labelled by pool name
+ */
+public final class PoolMetrics {
+    // one factory for all pools, it registers a single collector with the default registry
+    private static final MetricsTrackerFactory TRACKER_FACTORY = new PrometheusMetricsTrackerFactory();
+
+    private PoolMetrics() {
+    }
+
+    public static void track(HikariDataSource dataSource) {
+        dataSource.setMetricsTrackerFactory(TRACKER_FACTORY);
+    }
+}
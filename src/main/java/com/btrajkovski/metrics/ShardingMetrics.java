@@ -0,0 +1,80 @@
+package com.btrajkovski.metrics;
+
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.GetShardRegionState;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import io.prometheus.client.Gauge;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Periodically reads the shards this node hosts for each entity type and reports how many entities run in them
+ */
+public class ShardingMetrics {
+    private static final Gauge ENTITIES = Gauge.build()
+            .name("sharding_entities")
+            .help("Entities running in each shard hosted by this node.")
+            .labelNames("entity_type", "shard")
+            .register();
+
+    public interface Command {
+    }
+
+    private enum Tick implements Command {
+        INSTANCE
+    }
+
+    private static class RegionState implements Command {
+        final String entityType;
+        final ShardRegion.CurrentShardRegionState state;
+
+        RegionState(String entityType, ShardRegion.CurrentShardRegionState state) {
+            this.entityType = entityType;
+            this.state = state;
+        }
+    }
+
+    public static Behavior<Command> create(Duration interval, List<EntityTypeKey<?>> entityTypes) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers -> {
+            timers.startTimerWithFixedDelay(Tick.INSTANCE, interval);
+            ClusterSharding sharding = ClusterSharding.get(ctx.getSystem());
+            Map<String, Set<String>> reportedShards = new HashMap<>();
+
+            return Behaviors.receive(Command.class)
+                    .onMessage(Tick.class, tick -> {
+                        for (EntityTypeKey<?> entityType : entityTypes) {
+                            ctx.ask(ShardRegion.CurrentShardRegionState.class, sharding.shardState(), interval,
+                                    replyTo -> new GetShardRegionState(entityType, replyTo),
+                                    (state, error) -> new RegionState(entityType.name(), state));
+                        }
+                        return Behaviors.same();
+                    })
+                    .onMessage(RegionState.class, command -> {
+                        if (command.state == null) {
+                            // the region did not answer in time, the next tick tries again
+                            return Behaviors.same();
+                        }
+                        Set<String> shards = new HashSet<>();
+                        for (ShardRegion.ShardState shard : command.state.getShards()) {
+                            shards.add(shard.shardId());
+                            ENTITIES.labels(command.entityType, shard.shardId()).set(shard.getEntityIds().size());
+                        }
+                        // shards that moved to other nodes are no longer reported by this one
+                        Set<String> previous = reportedShards.getOrDefault(command.entityType, new HashSet<>());
+                        previous.removeAll(shards);
+                        previous.forEach(shardId -> ENTITIES.remove(command.entityType, shardId));
+                        reportedShards.put(command.entityType, shards);
+                        return Behaviors.same();
+                    })
+                    .build();
+        }));
+    }
+}
@@ -1,68 +1,106 @@
 package com.btrajkovski.orders;
 
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
 import akka.persistence.typed.javadsl.*;
-import com.btrajkovski.serializers.JsonSerializable;
+import com.btrajkovski.serializers.CborSerializable;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Ships the items of a paid order. Runs as its own sharded entity, keyed by the order id, and reports back to the
+ * order with {@link OrderEntity.OrderInFulfilment} and {@link OrderEntity.CloseOrder}. The shipping deadline is
+ * part of the persisted state, so a shipment in progress is resumed with the remaining delay after a restart.
+ */
 public class FulfilmentProvider extends EventSourcedBehavior<FulfilmentProvider.Command, FulfilmentProvider.Event, FulfilmentProvider.State> {
+    private static final Logger log = LoggerFactory.getLogger(FulfilmentProvider.class);
+
     // this makes the context available to the command handler etc.
     private final ActorContext<Command> context;
     private final ClusterSharding sharding;
     private final Duration shippingDelay;
     private final TimerScheduler<Command> timers;
+    private final ActorRef<ClusterSharding.ShardCommand> shard;
     private static final String SHIPPING_TIMER_KEY = "shipping-in-progress";
 
-    interface Command extends JsonSerializable {
+    public static final EntityTypeKey<Command> ENTITY_KEY =
+            EntityTypeKey.create(Command.class, "FulfilmentProvider");
+
+    public interface Command extends CborSerializable {
     }
 
-    interface Event extends JsonSerializable {
+    public interface Event extends CborSerializable {
     }
 
-    public static class State implements JsonSerializable {
+    public static class State implements CborSerializable {
         private final String orderId;
+        private final long shipmentStartedAt;
         private final boolean isOrderProcessed;
+        private final boolean isShippedSuccessfully;
 
-        private State(String orderId, boolean isOrderProcessed) {
+        private State(String orderId, long shipmentStartedAt, boolean isOrderProcessed, boolean isShippedSuccessfully) {
             this.orderId = orderId;
+            this.shipmentStartedAt = shipmentStartedAt;
             this.isOrderProcessed = isOrderProcessed;
+            this.isShippedSuccessfully = isShippedSuccessfully;
+        }
+
+        private boolean isShipmentStarted() {
+            return orderId != null;
         }
     }
 
     public static class StartShipOrder implements Command {
         private final OrderEntity.OrderSummary orderSummary;
-        public final ActorRef<OrderEntity.Command> actorReplyTo;
 
-        public StartShipOrder(OrderEntity.OrderSummary orderSummary, ActorRef<OrderEntity.Command> actorReplyTo) {
+        @JsonCreator
+        public StartShipOrder(@JsonProperty("orderSummary") OrderEntity.OrderSummary orderSummary) {
             this.orderSummary = orderSummary;
-            this.actorReplyTo = actorReplyTo;
         }
     }
 
     public static class CompleteOrderShipping implements Command {
         public final String replyToEntityId;
 
-        public CompleteOrderShipping(String replyToEntityId) {
+        @JsonCreator
+        public CompleteOrderShipping(@JsonProperty("replyToEntityId") String replyToEntityId) {
             this.replyToEntityId = replyToEntityId;
         }
     }
 
+    /**
+     * Sent by the shard once the entity has been passivated
+     */
+    enum Stop implements Command {
+        INSTANCE
+    }
+
     public static class ShipmentStarted implements Event {
         public final String orderId;
+        // Events persisted before this field existed read as 0 and complete the shipment right after recovery
+        public final long startedAt;
 
         @JsonCreator
-        public ShipmentStarted(String orderId) {
+        public ShipmentStarted(@JsonProperty("orderId") String orderId, @JsonProperty("startedAt") long startedAt) {
             this.orderId = orderId;
+            this.startedAt = startedAt;
         }
     }
 
@@ -70,78 +108,152 @@ public class FulfilmentProvider extends EventSourcedBehavior<FulfilmentProvider.
         public final boolean isSuccessful;
 
         @JsonCreator
-        public OrderShippingEnded(boolean isSuccessful) {
+        public OrderShippingEnded(@JsonProperty("isSuccessful") boolean isSuccessful) {
             this.isSuccessful = isSuccessful;
         }
     }
 
-    public static Behavior<Command> create(String orderId) {
+    public static Behavior<Command> create(String orderId, ActorRef<ClusterSharding.ShardCommand> shard) {
         return Behaviors.setup(ctx ->
                 Behaviors.withTimers(timers ->
-                        new FulfilmentProvider(PersistenceId.ofUniqueId("fulfilment" + orderId), ctx, timers))
+                        new FulfilmentProvider(PersistenceId.ofUniqueId("fulfilment" + orderId), shard, ctx, timers))
         );
     }
 
-    private FulfilmentProvider(PersistenceId persistenceId, ActorContext<Command> ctx, TimerScheduler<Command> timers) {
+    public static void init(ActorSystem<?> system) {
+        ClusterShardingSettings settings =
+                ClusterShardingSettings.fromConfig(system.settings().config().getConfig("my-app.fulfilment-provider.sharding"));
+
+        ClusterSharding.get(system)
+                .init(
+                        Entity.of(
+                                ENTITY_KEY,
+                                entityContext -> FulfilmentProvider.create(entityContext.getEntityId(), entityContext.getShard()))
+                                .withStopMessage(Stop.INSTANCE)
+                                .withEntityProps(DispatcherSelector.fromConfig("my-app.entity-dispatcher"))
+                                .withSettings(settings));
+    }
+
+    private FulfilmentProvider(PersistenceId persistenceId, ActorRef<ClusterSharding.ShardCommand> shard,
+                               ActorContext<Command> ctx, TimerScheduler<Command> timers) {
         super(persistenceId);
         this.context = ctx;
         this.timers = timers;
+        this.shard = shard;
         this.sharding = ClusterSharding.get(ctx.getSystem());
         this.shippingDelay = ctx.getSystem().settings().config().getDuration("my-app.fulfilment-provider.shipping-delay");
     }
 
     @Override
     public State emptyState() {
-        return new State(null, false);
+        return new State(null, 0, false, false);
     }
 
     @Override
     public CommandHandler<Command, Event, State> commandHandler() {
         CommandHandlerBuilder<Command, Event, State> commandHandlerBuilder = newCommandHandlerBuilder();
+        commandHandlerBuilder
+                .forState(state -> !state.isShipmentStarted())
+                .onCommand(StartShipOrder.class, this::shipOrder);
+
         commandHandlerBuilder
                 .forState(state -> !state.isOrderProcessed)
-                .onCommand(StartShipOrder.class, this::shipOrder)
+                .onCommand(StartShipOrder.class, this::acknowledgeShipment)
                 .onCommand(CompleteOrderShipping.class, this::completeOrderShipment);
 
+        commandHandlerBuilder
+                .forState(state -> state.isOrderProcessed)
+                .onCommand(StartShipOrder.class, this::repeatShipmentOutcome)
+                .onCommand(CompleteOrderShipping.class, command -> Effect().none());
+
+        commandHandlerBuilder
+                .forAnyState()
+                .onCommand(Stop.class, command -> Effect().stop());
+
         return commandHandlerBuilder.build();
     }
 
-
     @Override
     public EventHandler<State, Event> eventHandler() {
         return newEventHandlerBuilder()
                 .forAnyState()
-                .onEvent(ShipmentStarted.class, (state, event) -> {
-                    timers.startSingleTimer(SHIPPING_TIMER_KEY, new CompleteOrderShipping(event.orderId), shippingDelay);
-                    return new State(event.orderId, false);
-                })
-                .onEvent(OrderShippingEnded.class, (state, event) -> {
-                    timers.cancel(SHIPPING_TIMER_KEY);
-                    return new State(state.orderId, true);
+                .onEvent(ShipmentStarted.class, (state, event) -> new State(event.orderId, event.startedAt, false, false))
+                .onEvent(OrderShippingEnded.class, (state, event) ->
+                        new State(state.orderId, state.shipmentStartedAt, true, event.isSuccessful))
+                .build();
+    }
+
+    @Override
+    public SignalHandler<State> signalHandler() {
+        return newSignalHandlerBuilder()
+                .onSignal(RecoveryCompleted.instance(), state -> {
+                    if (state.isOrderProcessed) {
+                        passivate();
+                    } else if (state.isShipmentStarted()) {
+                        startShippingTimer(state);
+                    }
                 })
                 .build();
     }
 
+    private void startShippingTimer(State state) {
+        long elapsedMillis = System.currentTimeMillis() - state.shipmentStartedAt;
+        Duration remaining = shippingDelay.minusMillis(elapsedMillis);
+        timers.startSingleTimer(SHIPPING_TIMER_KEY, new CompleteOrderShipping(state.orderId),
+                remaining.isNegative() ? Duration.ZERO : remaining);
+    }
+
+    private void passivate() {
+        shard.tell(new ClusterSharding.Passivate<>(context.getSelf()));
+    }
+
+    private EntityRef<OrderEntity.Command> orderEntity(String orderId) {
+        return sharding.entityRefFor(OrderEntity.ENTITY_KEY, orderId);
+    }
+
     private Effect<Event, State> shipOrder(StartShipOrder command) {
-        context.getLog().info("Started shipping of items [{}]", command.orderSummary.items);
+        if (log.isDebugEnabled()) {
+            log.debug("Started shipping of order {} with {} items", command.orderSummary.id, command.orderSummary.items.size());
+        }
 
         return Effect()
-                .persist(new ShipmentStarted(command.orderSummary.id))
-                .thenRun(() -> command.actorReplyTo.tell(new OrderEntity.OrderInFulfilment()));
+                .persist(new ShipmentStarted(command.orderSummary.id, System.currentTimeMillis()))
+                .thenRun(newState -> {
+                    startShippingTimer(newState);
+                    orderEntity(newState.orderId).tell(OrderEntity.OrderInFulfilment.INSTANCE);
+                });
+    }
+
+    // The order repeats its request until it is closed, in case the acknowledgement was lost
+    private Effect<Event, State> acknowledgeShipment(State state, StartShipOrder command) {
+        return Effect().none()
+                .thenRun(newState -> orderEntity(state.orderId).tell(OrderEntity.OrderInFulfilment.INSTANCE));
+    }
+
+    private Effect<Event, State> repeatShipmentOutcome(State state, StartShipOrder command) {
+        return Effect().none()
+                .thenRun(newState -> {
+                    EntityRef<OrderEntity.Command> orderEntity = orderEntity(state.orderId);
+                    orderEntity.tell(OrderEntity.OrderInFulfilment.INSTANCE);
+                    orderEntity.tell(new OrderEntity.CloseOrder(state.isShippedSuccessfully));
+                });
     }
 
     private Effect<Event, State> completeOrderShipment(CompleteOrderShipping command) {
-        boolean shipSuccessfully = new Random().nextBoolean();
+        boolean shipSuccessfully = ThreadLocalRandom.current().nextBoolean();
 
-        context.getLog().info("Shipment completed with status {} after delay of {} seconds",
-                shipSuccessfully, shippingDelay.getSeconds());
+        if (log.isDebugEnabled()) {
+            log.debug("Shipment of order {} completed with status {} after delay of {} seconds",
+                    command.replyToEntityId, shipSuccessfully, shippingDelay.getSeconds());
+        }
 
-        EntityRef<OrderEntity.Command> orderEntity = sharding.entityRefFor(OrderEntity.ENTITY_KEY, command.replyToEntityId);
+        EntityRef<OrderEntity.Command> orderEntity = orderEntity(command.replyToEntityId);
 
         return Effect()
                 .persist(new OrderShippingEnded(shipSuccessfully))
-                .thenRun(() -> orderEntity.tell(new OrderEntity.CloseOrder(shipSuccessfully)))
-                .thenStop();
+                .thenRun(() -> {
+                    orderEntity.tell(new OrderEntity.CloseOrder(shipSuccessfully));
+                    passivate();
+                });
     }
 }
-
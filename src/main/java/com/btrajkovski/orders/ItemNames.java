@@ -0,0 +1,37 @@
+package com.btrajkovski.orders;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.List;
+
+/**
+ * Per node table of item names, so the resident entities that order the same item share one String instead of
+ * each holding the copy decoded from its event or snapshot. Bounded, names that fall out of the table stay correct
+ * in the states holding them and are only shared again once they are back in the table.
+ */
+final class ItemNames {
+    // a catalogue of this size covers the items of practically every order, at about 100 bytes per name
+    private static final int MAX_NAMES = 100_000;
+
+    private static final Cache<String, String> NAMES = Caffeine.newBuilder()
+            .maximumSize(MAX_NAMES)
+            .build();
+
+    private ItemNames() {
+    }
+
+    /**
+     * Immutable list of the shared instances of the names, with no backing array for one or two items
+     */
+    static List<String> intern(List<String> items) {
+        if (items == null) {
+            return null;
+        }
+        String[] names = new String[items.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = NAMES.get(items.get(i), name -> name);
+        }
+        return List.of(names);
+    }
+}
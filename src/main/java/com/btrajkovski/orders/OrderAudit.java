@@ -0,0 +1,54 @@
+package com.btrajkovski.orders;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit trail of the state transitions of orders, written as key=value lines to the "audit.orders" logger.
+ * Orders are sampled by id, so every transition of a sampled order is written and none of the others.
+ */
+public class OrderAudit implements Extension {
+    private static final Logger log = LoggerFactory.getLogger("audit.orders");
+    private static final int SAMPLE_BUCKETS = 10000;
+
+    private final int sampledBuckets;
+
+    OrderAudit(Config config) {
+        double sampleRate = config.getDouble("sample-rate");
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("my-app.audit.sample-rate must be between 0 and 1, was " + sampleRate);
+        }
+        this.sampledBuckets = (int) Math.round(sampleRate * SAMPLE_BUCKETS);
+    }
+
+    boolean isSampled(String orderId) {
+        return Math.floorMod(orderId.hashCode(), SAMPLE_BUCKETS) < sampledBuckets;
+    }
+
+    public void transition(String orderId, long sequenceNr, OrderEntity.State state) {
+        if (log.isInfoEnabled() && isSampled(orderId)) {
+            log.info("event=order-transition order_id={} seq_nr={} status={} user_id={} shipped={}",
+                    orderId, sequenceNr, state.status(), state.userId, state.isShippedSuccessfully());
+        }
+    }
+
+    public static OrderAudit get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderAudit> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderAudit createExtension(ActorSystem<?> system) {
+            return new OrderAudit(system.settings().config().getConfig("my-app.audit"));
+        }
+    }
+}
@@ -3,69 +3,131 @@ package com.btrajkovski.orders;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 import akka.pattern.StatusReply;
 import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
 import akka.persistence.typed.javadsl.*;
-import com.btrajkovski.serializers.JsonSerializable;
+import com.btrajkovski.serializers.CborSerializable;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.typesafe.config.Config;
+import io.prometheus.client.Histogram;
 import lombok.ToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEntity.Command, OrderEntity.Event, OrderEntity.State> {
 
+    // Logs through a static logger instead of context.getLog(), which sets the MDC on every call even when the
+    // level is off. The order id is part of the messages instead of the akkaSource MDC.
+    private static final Logger log = LoggerFactory.getLogger(OrderEntity.class);
+
     // this makes the context available to the command handler etc.
     private final ActorContext<Command> context;
 
-    public interface Command extends JsonSerializable {
+    public interface Command extends CborSerializable {
     }
 
-    public abstract static class Event implements JsonSerializable {
+    public abstract static class Event implements CborSerializable {
         public final String orderId;
 
         @JsonCreator
-        public Event(String orderId) {
+        public Event(@JsonProperty("orderId") String orderId) {
             this.orderId = orderId;
         }
     }
 
-    public static class State implements JsonSerializable {
+    /**
+     * Resident for every entity in memory, so it is kept small: item names are the shared instances of
+     * {@link ItemNames} in an immutable list, passed on as is by transitions and summaries, and the status and
+     * shipping result are packed into one byte. Snapshots keep the fields items, status, isShippedSuccessfully
+     * and userId.
+     */
+    public static class State implements CborSerializable {
+        private static final OrderStatus[] STATUSES = OrderStatus.values();
+        // lower bits: ordinal of the status + 1, 0 before the order is created
+        private static final int STATUS_MASK = 0x7;
+        private static final int SHIPPED_KNOWN = 0x8;
+        private static final int SHIPPED_SUCCESSFULLY = 0x10;
+
         public final List<String> items;
-        public final OrderStatus status;
-        public final Boolean isShippedSuccessfully;
         public final String userId;
+        // written as status and isShippedSuccessfully
+        @JsonIgnore
+        private final byte flags;
 
         public State() {
             this(null, null, null, null);
         }
 
-        public State(List<String> items, OrderStatus status, Boolean isShippedSuccessfully, String userId) {
+        @JsonCreator
+        public State(@JsonProperty("items") List<String> items,
+                     @JsonProperty("status") OrderStatus status,
+                     @JsonProperty("isShippedSuccessfully") Boolean isShippedSuccessfully,
+                     @JsonProperty("userId") String userId) {
+            this(ItemNames.intern(items), userId, flags(status, isShippedSuccessfully));
+        }
+
+        private State(List<String> items, String userId, byte flags) {
             this.items = items;
-            this.status = status;
-            this.isShippedSuccessfully = isShippedSuccessfully;
             this.userId = userId;
+            this.flags = flags;
+        }
+
+        private static byte flags(OrderStatus status, Boolean isShippedSuccessfully) {
+            int flags = status == null ? 0 : status.ordinal() + 1;
+            if (isShippedSuccessfully != null) {
+                flags |= isShippedSuccessfully ? SHIPPED_KNOWN | SHIPPED_SUCCESSFULLY : SHIPPED_KNOWN;
+            }
+            return (byte) flags;
+        }
+
+        @JsonProperty("status")
+        public OrderStatus status() {
+            int status = flags & STATUS_MASK;
+            return status == 0 ? null : STATUSES[status - 1];
+        }
+
+        @JsonProperty("isShippedSuccessfully")
+        public Boolean isShippedSuccessfully() {
+            return (flags & SHIPPED_KNOWN) == 0 ? null : (flags & SHIPPED_SUCCESSFULLY) != 0;
+        }
+
+        private State withStatus(OrderStatus status) {
+            return new State(items, userId, (byte) ((flags & ~STATUS_MASK) | (status.ordinal() + 1)));
         }
 
         public State markOrderAsPaid() {
-            return new State(items, OrderStatus.PAID, isShippedSuccessfully, userId);
+            return withStatus(OrderStatus.PAID);
         }
 
         public State markOrderAsInFulfilment() {
-            return new State(items, OrderStatus.IN_FULFILLMENT, isShippedSuccessfully, userId);
+            return withStatus(OrderStatus.IN_FULFILLMENT);
         }
 
         public State markOrderAsClosed(boolean isShippedSuccessfully) {
-            return new State(items, OrderStatus.CLOSED, isShippedSuccessfully, userId);
+            return new State(items, userId, flags(OrderStatus.CLOSED, isShippedSuccessfully));
         }
 
         public OrderSummary toSummary(String orderId) {
-            return new OrderSummary(orderId, items, status, isShippedSuccessfully, userId);
+            return new OrderSummary(orderId, items, status(), isShippedSuccessfully(), userId);
         }
     }
 
@@ -76,12 +138,22 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
     public static final EntityTypeKey<Command> ENTITY_KEY =
             EntityTypeKey.create(Command.class, "OrderEntity");
 
+    /**
+     * Events are tagged with one of these tags so the read side projections can consume them in parallel.
+     * The number of tags must not change once events have been persisted with them.
+     */
+    public static final List<String> TAGS =
+            Collections.unmodifiableList(Arrays.asList("orders-0", "orders-1", "orders-2", "orders-3", "orders-4"));
+
     public static class CreateOrder implements Command {
         public final List<String> items;
         public final String userId;
         public final ActorRef<StatusReply<OrderSummary>> replyTo;
 
-        public CreateOrder(List<String> items, String userId, ActorRef<StatusReply<OrderSummary>> replyTo) {
+        @JsonCreator
+        public CreateOrder(@JsonProperty("items") List<String> items,
+                           @JsonProperty("userId") String userId,
+                           @JsonProperty("replyTo") ActorRef<StatusReply<OrderSummary>> replyTo) {
             this.items = items;
             this.userId = userId;
             this.replyTo = replyTo;
@@ -91,7 +163,8 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
     public static class GetOrder implements Command {
         public final ActorRef<StatusReply<OrderSummary>> replyTo;
 
-        public GetOrder(ActorRef<StatusReply<OrderSummary>> replyTo) {
+        @JsonCreator
+        public GetOrder(@JsonProperty("replyTo") ActorRef<StatusReply<OrderSummary>> replyTo) {
             this.replyTo = replyTo;
         }
     }
@@ -99,7 +172,8 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
     public static class PayOrder implements Command {
         final ActorRef<StatusReply<OrderSummary>> replyTo;
 
-        public PayOrder(ActorRef<StatusReply<OrderSummary>> replyTo) {
+        @JsonCreator
+        public PayOrder(@JsonProperty("replyTo") ActorRef<StatusReply<OrderSummary>> replyTo) {
             this.replyTo = replyTo;
         }
     }
@@ -107,18 +181,71 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
     public static class CloseOrder implements Command {
         public final boolean isShippedSuccessfully;
 
-        public CloseOrder(boolean isShippedSuccessfully) {
+        @JsonCreator
+        public CloseOrder(@JsonProperty("isShippedSuccessfully") boolean isShippedSuccessfully) {
             this.isShippedSuccessfully = isShippedSuccessfully;
         }
     }
 
-    public static class OrderInFulfilment implements Command {
-        public OrderInFulfilment() {
+    /**
+     * Sends the summary of the order to the subscriber every time the order changes, until it unsubscribes or the
+     * order is stopped. Subscribers are not persisted, so they subscribe again from time to time.
+     */
+    public static class SubscribeUpdates implements Command {
+        public final ActorRef<OrderSummary> subscriber;
+
+        @JsonCreator
+        public SubscribeUpdates(@JsonProperty("subscriber") ActorRef<OrderSummary> subscriber) {
+            this.subscriber = subscriber;
         }
     }
 
+    public static class UnsubscribeUpdates implements Command {
+        public final ActorRef<OrderSummary> subscriber;
+
+        @JsonCreator
+        public UnsubscribeUpdates(@JsonProperty("subscriber") ActorRef<OrderSummary> subscriber) {
+            this.subscriber = subscriber;
+        }
+    }
+
+    /**
+     * Sent by the fulfilment provider once the shipment started, an enum so it has something to serialize
+     */
+    public enum OrderInFulfilment implements Command {
+        INSTANCE
+    }
+
+    /**
+     * Receive timeout of orders that are not waiting for their shipment
+     */
+    enum Idle implements Command {
+        INSTANCE
+    }
+
+    /**
+     * Timer of paid orders and orders in fulfilment, asks the fulfilment provider again in case a message was lost
+     */
+    enum RequestShipmentAgain implements Command {
+        INSTANCE
+    }
+
+    /**
+     * Starts an order the orders view shows as paid or in fulfilment, which requests its shipment on recovery
+     */
+    public enum ResumeShipment implements Command {
+        INSTANCE
+    }
+
+    /**
+     * Sent by the shard once the entity has been passivated
+     */
+    enum Stop implements Command {
+        INSTANCE
+    }
+
     @ToString
-    public static class OrderSummary implements JsonSerializable {
+    public static class OrderSummary implements CborSerializable {
         public final String id;
         public final List<String> items;
         public final OrderStatus state;
@@ -156,14 +283,14 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
     public static class OrderPaid extends Event {
 
         @JsonCreator
-        public OrderPaid(String orderId) {
+        public OrderPaid(@JsonProperty("orderId") String orderId) {
             super(orderId);
         }
     }
 
     public static class OrderWasInFulfilment extends Event {
         @JsonCreator
-        public OrderWasInFulfilment(String orderId) {
+        public OrderWasInFulfilment(@JsonProperty("orderId") String orderId) {
             super(orderId);
         }
     }
@@ -172,30 +299,148 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
         public final boolean isShippedSuccessfully;
 
         @JsonCreator
-        public OrderClosed(String orderId, @JsonProperty("isShippedSuccessfully") boolean isShippedSuccessfully) {
+        public OrderClosed(@JsonProperty("orderId") String orderId, @JsonProperty("isShippedSuccessfully") boolean isShippedSuccessfully) {
             super(orderId);
             this.isShippedSuccessfully = isShippedSuccessfully;
         }
     }
 
+    private static final Histogram RECOVERY_TIME = Histogram.build()
+            .name("order_entity_recovery_seconds")
+            .help("Time from starting an order entity until its state is recovered from the snapshot and journal.")
+            .buckets(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5)
+            .register();
+
+    private static final Histogram RECOVERED_SEQUENCE_NR = Histogram.build()
+            .name("order_entity_recovered_sequence_nr")
+            .help("Number of events in the journal of an order entity when it is recovered.")
+            .exponentialBuckets(1, 2, 12)
+            .register();
+
     private final String orderId;
+    private final String projectionTag;
+    private final ActorRef<ClusterSharding.ShardCommand> shard;
+    private final OrderUpdates updates;
+    private final OrderAudit audit;
+    private final RetentionCriteria retentionCriteria;
+    private final Duration idleTimeout;
+    private final Duration shipmentRetryInterval;
+    private final TimerScheduler<Command> timers;
+    private final long recoveryStartNanos;
+    private final Set<ActorRef<OrderSummary>> subscribers = new HashSet<>();
+
+    public static Behavior<Command> create(String orderId, ActorRef<ClusterSharding.ShardCommand> shard) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers ->
+                EventSourcedBehavior.start(new OrderEntity(orderId, shard, ctx, timers), ctx)));
+    }
 
-    public static Behavior<Command> create(String orderId) {
-        return Behaviors.setup(ctx -> EventSourcedBehavior.start(new OrderEntity(orderId, ctx), ctx));
+    static String tagFor(String orderId) {
+        return TAGS.get(Math.abs(orderId.hashCode() % TAGS.size()));
     }
 
     public static void init(ActorSystem<?> system) {
+        ClusterShardingSettings settings =
+                ClusterShardingSettings.fromConfig(system.settings().config().getConfig("my-app.order-entity.sharding"));
+
         ClusterSharding.get(system)
                 .init(
                         Entity.of(
                                 ENTITY_KEY,
-                                entityContext -> OrderEntity.create(entityContext.getEntityId())));
+                                entityContext -> OrderEntity.create(entityContext.getEntityId(), entityContext.getShard()))
+                                .withStopMessage(Stop.INSTANCE)
+                                .withMessageExtractor(OrderShards.get(system).messageExtractor())
+                                .withEntityProps(DispatcherSelector.fromConfig("my-app.entity-dispatcher"))
+                                .withSettings(settings));
     }
 
-    private OrderEntity(String orderId, ActorContext<Command> ctx) {
+    private OrderEntity(String orderId, ActorRef<ClusterSharding.ShardCommand> shard, ActorContext<Command> ctx,
+                        TimerScheduler<Command> timers) {
         super(PersistenceId.of(ENTITY_KEY.name(), orderId));
         this.orderId = orderId;
+        this.projectionTag = tagFor(orderId);
+        this.shard = shard;
         this.context = ctx;
+        this.timers = timers;
+        this.updates = OrderUpdates.get(ctx.getSystem());
+        this.audit = OrderAudit.get(ctx.getSystem());
+        Config config = ctx.getSystem().settings().config().getConfig("my-app.order-entity");
+        this.retentionCriteria = retentionCriteria(config.getConfig("snapshot"));
+        this.idleTimeout = config.getDuration("passivation.idle-timeout");
+        this.shipmentRetryInterval = config.getDuration("shipment-retry-interval");
+        this.recoveryStartNanos = System.nanoTime();
+    }
+
+    static RetentionCriteria retentionCriteria(Config config) {
+        int everyNEvents = config.getInt("every-n-events");
+        if (everyNEvents <= 0) {
+            return RetentionCriteria.disabled();
+        }
+
+        SnapshotCountRetentionCriteria criteria = RetentionCriteria.snapshotEvery(everyNEvents, config.getInt("keep-n-snapshots"));
+        return config.getBoolean("delete-events-on-snapshot") ? criteria.withDeleteEventsOnSnapshot() : criteria;
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        return retentionCriteria;
+    }
+
+    @Override
+    public SignalHandler<State> signalHandler() {
+        return newSignalHandlerBuilder()
+                .onSignal(RecoveryCompleted.instance(), this::onRecoveryCompleted)
+                .build();
+    }
+
+    private void onRecoveryCompleted(State state) {
+        long elapsedNanos = System.nanoTime() - recoveryStartNanos;
+        long sequenceNr = lastSequenceNumber(context);
+        RECOVERY_TIME.observe(elapsedNanos / 1e9);
+        RECOVERED_SEQUENCE_NR.observe(sequenceNr);
+        if (log.isDebugEnabled()) {
+            log.debug("Recovered order {} with {} events in {} us", orderId, sequenceNr, elapsedNanos / 1000);
+        }
+
+        if (isAwaitingShipment(state)) {
+            awaitShipment(state);
+        } else {
+            context.setReceiveTimeout(idleTimeout, Idle.INSTANCE);
+        }
+    }
+
+    // A paid order or an order in fulfilment asks the fulfilment provider to ship it every shipment-retry-interval
+    // until it is closed, so neither a lost request nor a lost OrderInFulfilment or CloseOrder leaves it unfinished.
+    // The provider answers a repeated request with the outcome of a shipment that ended already.
+    private static boolean isAwaitingShipment(State state) {
+        return state.status() == OrderStatus.PAID || state.status() == OrderStatus.IN_FULFILLMENT;
+    }
+
+    private void awaitShipment(State state) {
+        context.cancelReceiveTimeout();
+        requestShipment(state);
+        timers.startTimerWithFixedDelay(RequestShipmentAgain.INSTANCE, RequestShipmentAgain.INSTANCE, shipmentRetryInterval);
+    }
+
+    private void requestShipment(State state) {
+        ClusterSharding.get(context.getSystem())
+                .entityRefFor(FulfilmentProvider.ENTITY_KEY, orderId)
+                .tell(new FulfilmentProvider.StartShipOrder(state.toSummary(orderId)));
+    }
+
+    private void passivate() {
+        shard.tell(new ClusterSharding.Passivate<>(context.getSelf()));
+    }
+
+    private void transitioned(State state) {
+        OrderSummary summary = state.toSummary(orderId);
+        updates.publish(summary);
+        subscribers.forEach(subscriber -> subscriber.tell(summary));
+        audit.transition(orderId, lastSequenceNumber(context), state);
+    }
+
+    @Override
+    public Set<String> tagsFor(Event event) {
+        return Collections.singleton(projectionTag);
     }
 
     @Override
@@ -207,36 +452,56 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
     public CommandHandlerWithReply<Command, Event, State> commandHandler() {
         CommandHandlerWithReplyBuilder<Command, Event, State> eventsBuilders = newCommandHandlerWithReplyBuilder();
 
-        eventsBuilders.forState(state -> state.status != null)
-                .onCommand(GetOrder.class, this::onGetOrder);
+        eventsBuilders.forState(state -> state.status() != null)
+                .onCommand(GetOrder.class, this::onGetOrder)
+                .onCommand(CreateOrder.class, this::onCreateRepeated);
 
-        eventsBuilders.forState(state -> state.status == null)
+        eventsBuilders.forState(state -> state.status() == null)
                 .onCommand(CreateOrder.class, this::onCreateOrder);
 
-        eventsBuilders.forState(state -> state.status == OrderStatus.CREATED)
+        eventsBuilders.forState(state -> state.status() == OrderStatus.CREATED)
                 .onCommand(PayOrder.class, this::onPayOrder);
 
-        eventsBuilders.forState(state -> state.status == OrderStatus.PAID)
+        eventsBuilders.forState(state -> state.status() == OrderStatus.PAID)
                 .onCommand(OrderInFulfilment.class, this::onOrderInFulfilment);
 
-        eventsBuilders.forState(state -> state.status == OrderStatus.IN_FULFILLMENT)
+        eventsBuilders.forState(state -> state.status() == OrderStatus.IN_FULFILLMENT)
                 .onCommand(CloseOrder.class, this::onCloseOrder);
 
-        // Ignore duplicate OrderInFulfilment commands
-        eventsBuilders.forState(state -> state.status == OrderStatus.IN_FULFILLMENT)
-                .onCommand(OrderInFulfilment.class, this::ignoreCommand);
+        // Ignore duplicate OrderInFulfilment and CloseOrder commands, repeated requests for shipment repeat them
+        eventsBuilders.forState(state -> state.status() == OrderStatus.IN_FULFILLMENT || state.status() == OrderStatus.CLOSED)
+                .onCommand(OrderInFulfilment.class, this::ignoreCommand)
+                .onCommand(CloseOrder.class, this::ignoreCommand);
+
+        eventsBuilders.forState(OrderEntity::isAwaitingShipment)
+                .onCommand(RequestShipmentAgain.class, (state, command) -> {
+                    log.debug("Requesting shipment of order {} again", orderId);
+                    return Effect().none().thenRun(this::requestShipment).thenNoReply();
+                });
+
+        eventsBuilders.forAnyState()
+                .onCommand(Idle.class, this::onIdle)
+                .onCommand(RequestShipmentAgain.class, this::ignoreCommand)
+                .onCommand(ResumeShipment.class, command -> Effect().noReply())
+                .onCommand(SubscribeUpdates.class, command -> {
+                    subscribers.add(command.subscriber);
+                    return Effect().noReply();
+                })
+                .onCommand(UnsubscribeUpdates.class, command -> {
+                    subscribers.remove(command.subscriber);
+                    return Effect().noReply();
+                })
+                .onCommand(Stop.class, command -> Effect().stop().thenNoReply());
 
         // Negative scenarios
         eventsBuilders.forAnyState()
-                .onCommand(CreateOrder.class, this::createNotAllowed)
                 .onCommand(PayOrder.class, this::payNotAllowed)
                 .onCommand(GetOrder.class, this::orderNotFound);
 
         return eventsBuilders.build();
     }
 
-    ActorRef<FulfilmentProvider.Command> fulfilmentProvider;
-
+    // Closed orders are snapshotted on top of the snapshots of the retention criteria
     @Override
     public boolean shouldSnapshot(State state, Event event, long sequenceNr) {
         return event instanceof OrderClosed;
@@ -247,74 +512,94 @@ public class OrderEntity extends EventSourcedBehaviorWithEnforcedReplies<OrderEn
         return newEventHandlerBuilder()
                 .forAnyState()
                 .onEvent(OrderCreated.class, (state, event) -> new State(event.items, OrderStatus.CREATED, null, event.userId))
-                .onEvent(OrderPaid.class, (state, event) -> {
-                    fulfilmentProvider = context.spawn(FulfilmentProvider.create(orderId), "fulfilment-provider-" + orderId);
-                    fulfilmentProvider.tell(new FulfilmentProvider.StartShipOrder(state.toSummary(orderId), context.getSelf()));
-
-                    return state.markOrderAsPaid();
-                })
+                .onEvent(OrderPaid.class, (state, event) -> state.markOrderAsPaid())
                 .onEvent(OrderWasInFulfilment.class, (state, event) -> state.markOrderAsInFulfilment())
-                .onEvent(OrderClosed.class, (state, event) -> {
-                    context.stop(fulfilmentProvider);
-                    return state.markOrderAsClosed(event.isShippedSuccessfully);
-                })
-
-
+                .onEvent(OrderClosed.class, (state, event) -> state.markOrderAsClosed(event.isShippedSuccessfully))
                 .build();
     }
 
+    /**
+     * A create of an order that exists already is a retry with the same idempotency key. It is answered with
+     * the current order when it asks for the same items and user, without persisting anything.
+     */
+    private ReplyEffect<Event, State> onCreateRepeated(State state, CreateOrder command) {
+        if (!state.items.equals(command.items) || !Objects.equals(state.userId, command.userId)) {
+            return createNotAllowed(command);
+        }
+        log.debug("Create order {} repeated", orderId);
+        return Effect().reply(command.replyTo, StatusReply.success(state.toSummary(orderId)));
+    }
+
     private ReplyEffect<Event, State> createNotAllowed(CreateOrder command) {
-        context.getLog().info("Create order not allowed");
-        return Effect().reply(command.replyTo, StatusReply.error("Cannot create an order" + orderId + " that is already created"));
+        log.debug("Create order {} not allowed", orderId);
+        return Effect().reply(command.replyTo, StatusReply.error("Cannot create an order " + orderId + " that is already created with other items or user"));
     }
 
     private ReplyEffect<Event, State> ignoreCommand(Command command) {
-        context.getLog().info("Ignoring command {}", command.getClass().getName());
+        log.debug("Ignoring command {} of order {}", command.getClass().getName(), orderId);
         return Effect().noReply();
     }
 
     private ReplyEffect<Event, State> orderNotFound(GetOrder command) {
-        context.getLog().info("Order not found");
+        log.debug("Order {} not found", orderId);
         return Effect().reply(command.replyTo, StatusReply.error("Cannot find an order with id " + orderId));
     }
 
     private ReplyEffect<Event, State> payNotAllowed(State state, PayOrder command) {
-        context.getLog().info("Pay order not allowed");
-        return Effect().reply(command.replyTo, StatusReply.error("Cannot pay an order that is in state " + state.status));
+        log.debug("Pay order {} not allowed in state {}", orderId, state.status());
+        return Effect().reply(command.replyTo, StatusReply.error("Cannot pay an order that is in state " + state.status()));
     }
 
     private ReplyEffect<Event, State> onCreateOrder(CreateOrder command) {
-        context.getLog().info("Creating order");
+        log.debug("Creating order {}", orderId);
         return Effect()
                 .persist(new OrderCreated(orderId, command.items, command.userId))
+                .thenRun(this::transitioned)
                 .thenReply(command.replyTo, newState -> StatusReply.success(newState.toSummary(orderId)));
     }
 
     private ReplyEffect<Event, State> onPayOrder(PayOrder command) {
-        context.getLog().info("Paying order");
+        log.debug("Paying order {}", orderId);
 
         return Effect()
                 .persist(new OrderPaid(orderId))
+                .thenRun(newState -> {
+                    transitioned(newState);
+                    awaitShipment(newState);
+                })
                 .thenReply(command.replyTo, newState -> StatusReply.success(newState.toSummary(orderId)));
     }
 
     private ReplyEffect<Event, State> onCloseOrder(CloseOrder command) {
-        context.getLog().info("Closing order");
+        log.debug("Closing order {}", orderId);
         return Effect()
                 .persist(new OrderClosed(orderId, command.isShippedSuccessfully))
+                .thenRun(newState -> {
+                    transitioned(newState);
+                    timers.cancel(RequestShipmentAgain.INSTANCE);
+                    passivate();
+                })
                 .thenNoReply();
     }
 
+    private ReplyEffect<Event, State> onIdle(State state, Idle command) {
+        if (isAwaitingShipment(state)) {
+            return Effect().noReply();
+        }
+        return Effect().none().thenRun(newState -> passivate()).thenNoReply();
+    }
+
     private ReplyEffect<Event, State> onGetOrder(State state, GetOrder command) {
-        context.getLog().info("Get order by id {}", orderId);
+        log.trace("Get order by id {}", orderId);
         return Effect().reply(command.replyTo, StatusReply.success(state.toSummary(orderId)));
 
     }
 
     private ReplyEffect<Event, State> onOrderInFulfilment(OrderInFulfilment command) {
-        context.getLog().info("Order in fulfilment {}", orderId);
+        log.debug("Order in fulfilment {}", orderId);
         return Effect()
                 .persist(new OrderWasInFulfilment(orderId))
+                .thenRun(this::transitioned)
                 .thenNoReply();
     }
 }
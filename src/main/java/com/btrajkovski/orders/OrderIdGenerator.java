@@ -0,0 +1,10 @@
+package com.btrajkovski.orders;
+
+/**
+ * Ids of new orders. Implementations are configured with my-app.order-ids.generator and need a public
+ * constructor taking the {@link akka.actor.typed.ActorSystem}, one instance is shared by the node through
+ * {@link OrderIds}. Ids must be unique across the cluster and usable as entity ids.
+ */
+public interface OrderIdGenerator {
+    String nextId();
+}
@@ -0,0 +1,44 @@
+package com.btrajkovski.orders;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+
+/**
+ * The {@link OrderIdGenerator} of the node, configured with my-app.order-ids.generator
+ */
+public class OrderIds implements Extension {
+    private final OrderIdGenerator generator;
+
+    private OrderIds(ActorSystem<?> system) {
+        String generatorClass = system.settings().config().getString("my-app.order-ids.generator");
+        try {
+            generator = Class.forName(generatorClass)
+                    .asSubclass(OrderIdGenerator.class)
+                    .getConstructor(ActorSystem.class)
+                    .newInstance(system);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create order id generator " + generatorClass, e);
+        }
+    }
+
+    public String nextId() {
+        return generator.nextId();
+    }
+
+    public static OrderIds get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderIds> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderIds createExtension(ActorSystem<?> system) {
+            return new OrderIds(system);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.btrajkovski.orders;
+
+import akka.actor.Address;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.receptionist.Receptionist;
+import akka.actor.typed.receptionist.ServiceKey;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.GetShardRegionState;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import com.btrajkovski.serializers.CborSerializable;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * HTTP address of the node hosting each shard of the orders. Every interval the node asks its shard region which
+ * shards it hosts and tells the other nodes, with the address at which it serves HTTP, so {@link #ownerOf(String)}
+ * is answered from memory without asking sharding.
+ */
+public class OrderShardOwners implements Extension {
+    public static final ServiceKey<Command> SERVICE_KEY = ServiceKey.create(Command.class, "order-shard-owners");
+
+    private final OrderShards shards;
+    private final String httpAddress;
+    private volatile Map<String, String> shardOwners = Map.of();
+
+    private OrderShardOwners(ActorSystem<?> system) {
+        Config config = system.settings().config();
+        shards = OrderShards.get(system);
+        httpAddress = config.getString("my-app.http.advertised-address");
+        system.systemActorOf(
+                create(config.getDuration("my-app.shard-owners.interval"), httpAddress, owners -> shardOwners = owners),
+                "order-shard-owners", Props.empty());
+    }
+
+    /**
+     * HTTP address, host:port, of the node hosting the shard of the order, as of the last interval.
+     * Empty while the shard is not located yet, it is started where the order is used first.
+     */
+    public Optional<String> ownerOf(String orderId) {
+        return Optional.ofNullable(shardOwners.get(shards.shardId(orderId)));
+    }
+
+    /**
+     * HTTP address of every shard that is located
+     */
+    public Map<String, String> shardOwners() {
+        return shardOwners;
+    }
+
+    /**
+     * HTTP address of this node
+     */
+    public String httpAddress() {
+        return httpAddress;
+    }
+
+    public interface Command {
+    }
+
+    private enum Refresh implements Command {
+        INSTANCE
+    }
+
+    private static class LocalShards implements Command {
+        final ShardRegion.CurrentShardRegionState state;
+
+        LocalShards(ShardRegion.CurrentShardRegionState state) {
+            this.state = state;
+        }
+    }
+
+    private static class NodesChanged implements Command {
+        final Receptionist.Listing listing;
+
+        NodesChanged(Receptionist.Listing listing) {
+            this.listing = listing;
+        }
+    }
+
+    /**
+     * Shards of the orders hosted by a node and its HTTP address, sent to the other nodes
+     */
+    public static class ShardsHosted implements Command, CborSerializable {
+        public final Set<String> shardIds;
+        public final ActorRef<Command> owners;
+        public final String httpAddress;
+
+        @JsonCreator
+        public ShardsHosted(@JsonProperty("shardIds") Set<String> shardIds,
+                            @JsonProperty("owners") ActorRef<Command> owners,
+                            @JsonProperty("httpAddress") String httpAddress) {
+            this.shardIds = shardIds;
+            this.owners = owners;
+            this.httpAddress = httpAddress;
+        }
+    }
+
+    static Behavior<Command> create(Duration interval, String httpAddress, Consumer<Map<String, String>> listener) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers -> {
+            timers.startTimerWithFixedDelay(Refresh.INSTANCE, Duration.ZERO, interval);
+            return new Tracker(ctx, interval, httpAddress, listener).behavior();
+        }));
+    }
+
+    private static class Tracker {
+        private final ActorContext<Command> ctx;
+        private final ClusterSharding sharding;
+        private final Duration interval;
+        private final String httpAddress;
+        private final Consumer<Map<String, String>> listener;
+
+        private final Map<Address, ActorRef<Command>> nodes = new HashMap<>();
+        private final Map<Address, ShardsHosted> shardsByNode = new HashMap<>();
+        private Set<String> localShards = Set.of();
+
+        Tracker(ActorContext<Command> ctx, Duration interval, String httpAddress, Consumer<Map<String, String>> listener) {
+            this.ctx = ctx;
+            this.sharding = ClusterSharding.get(ctx.getSystem());
+            this.interval = interval;
+            this.httpAddress = httpAddress;
+            this.listener = listener;
+
+            ctx.getSystem().receptionist().tell(Receptionist.register(SERVICE_KEY, ctx.getSelf()));
+            ctx.getSystem().receptionist().tell(Receptionist.subscribe(SERVICE_KEY,
+                    ctx.messageAdapter(Receptionist.Listing.class, NodesChanged::new)));
+        }
+
+        Behavior<Command> behavior() {
+            return Behaviors.receive(Command.class)
+                    .onMessageEquals(Refresh.INSTANCE, () -> {
+                        ctx.ask(ShardRegion.CurrentShardRegionState.class, sharding.shardState(), interval,
+                                replyTo -> new GetShardRegionState(OrderEntity.ENTITY_KEY, replyTo),
+                                (state, error) -> new LocalShards(state));
+                        return Behaviors.same();
+                    })
+                    .onMessage(LocalShards.class, this::onLocalShards)
+                    .onMessage(NodesChanged.class, this::onNodesChanged)
+                    .onMessage(ShardsHosted.class, this::onShardsHosted)
+                    .build();
+        }
+
+        private Behavior<Command> onLocalShards(LocalShards command) {
+            if (command.state == null) {
+                // the region did not answer in time, the next refresh tries again
+                return Behaviors.same();
+            }
+            Set<String> shardIds = new HashSet<>();
+            for (ShardRegion.ShardState shard : command.state.getShards()) {
+                shardIds.add(shard.shardId());
+            }
+            nodes.values().forEach(node -> node.tell(new ShardsHosted(shardIds, ctx.getSelf(), httpAddress)));
+            localShards = shardIds;
+            publish();
+            return Behaviors.same();
+        }
+
+        private Behavior<Command> onNodesChanged(NodesChanged command) {
+            nodes.clear();
+            for (ActorRef<Command> node : command.listing.getServiceInstances(SERVICE_KEY)) {
+                if (!node.equals(ctx.getSelf())) {
+                    nodes.put(node.path().address(), node);
+                }
+            }
+            if (shardsByNode.keySet().retainAll(nodes.keySet())) {
+                publish();
+            }
+            return Behaviors.same();
+        }
+
+        private Behavior<Command> onShardsHosted(ShardsHosted command) {
+            Address node = command.owners.path().address();
+            if (nodes.containsKey(node)) {
+                shardsByNode.put(node, command);
+                publish();
+            }
+            return Behaviors.same();
+        }
+
+        /**
+         * Published as a new map, read by the routes without going through the actor
+         */
+        private void publish() {
+            Map<String, String> owners = new HashMap<>();
+            shardsByNode.values().forEach(hosted -> hosted.shardIds.forEach(shardId -> owners.put(shardId, hosted.httpAddress)));
+            localShards.forEach(shardId -> owners.put(shardId, httpAddress));
+            listener.accept(Collections.unmodifiableMap(owners));
+        }
+    }
+
+    public static OrderShardOwners get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderShardOwners> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderShardOwners createExtension(ActorSystem<?> system) {
+            return new OrderShardOwners(system);
+        }
+    }
+}
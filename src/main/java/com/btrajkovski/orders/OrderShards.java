@@ -0,0 +1,114 @@
+package com.btrajkovski.orders;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.ShardingMessageExtractor;
+import com.typesafe.config.Config;
+
+/**
+ * Shards of the orders. An order id either starts with its shard and a dot, {@code 17.<id>}, or is placed by the
+ * hash of the whole id like the default extractor of sharding does, which is how the orders created before keep
+ * their shard. With user-affinity on new orders get the shard of the hash of their user, so all orders of a user
+ * are hosted by one node and a request for them can be sent to that node, see
+ * {@link OrderShardOwners#ownerOf(String)}. Ids of either kind are placed right whether user-affinity is on or off.
+ */
+public class OrderShards implements Extension {
+    private static final char SHARD_SEPARATOR = '.';
+
+    private final int numberOfShards;
+    private final boolean userAffinity;
+    private final ShardingMessageExtractor<ShardingEnvelope<OrderEntity.Command>, OrderEntity.Command> messageExtractor;
+
+    private OrderShards(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("my-app.order-entity");
+        numberOfShards = ClusterShardingSettings.fromConfig(config.getConfig("sharding")).numberOfShards();
+        userAffinity = config.getBoolean("user-affinity");
+        messageExtractor = new ShardingMessageExtractor<>() {
+            @Override
+            public String entityId(ShardingEnvelope<OrderEntity.Command> envelope) {
+                return envelope.entityId();
+            }
+
+            @Override
+            public String shardId(String entityId) {
+                return OrderShards.this.shardId(entityId);
+            }
+
+            @Override
+            public OrderEntity.Command unwrapMessage(ShardingEnvelope<OrderEntity.Command> envelope) {
+                return envelope.message();
+            }
+        };
+    }
+
+    public int numberOfShards() {
+        return numberOfShards;
+    }
+
+    public boolean userAffinity() {
+        return userAffinity;
+    }
+
+    public String shardId(String orderId) {
+        int separator = orderId.indexOf(SHARD_SEPARATOR);
+        if (separator > 0) {
+            int shard = parseShard(orderId, separator);
+            if (shard >= 0) {
+                return Integer.toString(shard);
+            }
+        }
+        return Integer.toString(Math.abs(orderId.hashCode() % numberOfShards));
+    }
+
+    /**
+     * The shard in front of the separator, -1 when it is not one of the shards
+     */
+    private int parseShard(String orderId, int separator) {
+        if (separator > 9) {
+            return -1;
+        }
+        int shard = 0;
+        for (int i = 0; i < separator; i++) {
+            char c = orderId.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            shard = shard * 10 + (c - '0');
+        }
+        return shard < numberOfShards ? shard : -1;
+    }
+
+    public String shardOfUser(String userId) {
+        return Integer.toString(Math.floorMod(userId.hashCode(), numberOfShards));
+    }
+
+    /**
+     * Id of a new order of the user, the id itself when user-affinity is off or the order has no user
+     */
+    public String orderId(String userId, String id) {
+        return userAffinity && userId != null ? shardOfUser(userId) + SHARD_SEPARATOR + id : id;
+    }
+
+    public ShardingMessageExtractor<ShardingEnvelope<OrderEntity.Command>, OrderEntity.Command> messageExtractor() {
+        return messageExtractor;
+    }
+
+    public static OrderShards get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderShards> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderShards createExtension(ActorSystem<?> system) {
+            return new OrderShards(system);
+        }
+    }
+}
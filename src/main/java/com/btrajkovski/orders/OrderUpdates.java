@@ -0,0 +1,169 @@
+package com.btrajkovski.orders;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Source;
+import akka.stream.typed.javadsl.ActorSource;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Order summaries, published by the orders every time their state changed. Published summaries only reach the
+ * listeners of the node hosting the order, a node that streams the updates of an order subscribes to that order
+ * alone, so nothing is broadcast to nodes that do not use it. Delivery is at most once, listeners must not rely
+ * on seeing every update.
+ */
+public class OrderUpdates implements Extension {
+    private final List<Consumer<OrderEntity.OrderSummary>> localListeners = new CopyOnWriteArrayList<>();
+    private final ActorRef<ListenersCommand> listeners;
+
+    private OrderUpdates(ActorSystem<?> system) {
+        Duration resubscribeInterval = system.settings().config().getDuration("my-app.order-updates.resubscribe-interval");
+        listeners = system.systemActorOf(listeners(resubscribeInterval), "order-updates-listeners", Props.empty());
+    }
+
+    /**
+     * Called by an order hosted on this node, on the thread of the order
+     */
+    public void publish(OrderEntity.OrderSummary summary) {
+        localListeners.forEach(listener -> listener.accept(summary));
+    }
+
+    /**
+     * Listens to every order hosted on this node, the listener must not block
+     */
+    public void listenLocally(Consumer<OrderEntity.OrderSummary> listener) {
+        localListeners.add(listener);
+    }
+
+    /**
+     * Updates of a single order, wherever it is hosted, for as long as the source runs. All listeners of an order
+     * on a node share one subscription to the order, which is renewed every resubscribe-interval in case the order
+     * was stopped or moved in the meantime. When the listener falls behind by more than bufferSize updates the
+     * oldest ones are dropped.
+     */
+    public Source<OrderEntity.OrderSummary, NotUsed> updatesOf(String orderId, int bufferSize) {
+        return ActorSource.<OrderEntity.OrderSummary>actorRef(
+                        summary -> false,
+                        summary -> Optional.empty(),
+                        bufferSize,
+                        OverflowStrategy.dropHead())
+                .mapMaterializedValue(listener -> {
+                    listeners.tell(new Listen(orderId, listener));
+                    return NotUsed.getInstance();
+                });
+    }
+
+    private interface ListenersCommand {
+    }
+
+    private static class Listen implements ListenersCommand {
+        final String orderId;
+        final ActorRef<OrderEntity.OrderSummary> listener;
+
+        Listen(String orderId, ActorRef<OrderEntity.OrderSummary> listener) {
+            this.orderId = orderId;
+            this.listener = listener;
+        }
+    }
+
+    private static class ListenerStopped implements ListenersCommand {
+        final String orderId;
+        final ActorRef<OrderEntity.OrderSummary> listener;
+
+        ListenerStopped(String orderId, ActorRef<OrderEntity.OrderSummary> listener) {
+            this.orderId = orderId;
+            this.listener = listener;
+        }
+    }
+
+    private static class Published implements ListenersCommand {
+        final OrderEntity.OrderSummary summary;
+
+        Published(OrderEntity.OrderSummary summary) {
+            this.summary = summary;
+        }
+    }
+
+    private enum Resubscribe implements ListenersCommand {
+        INSTANCE
+    }
+
+    private static Behavior<ListenersCommand> listeners(Duration resubscribeInterval) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers -> {
+            timers.startTimerWithFixedDelay(Resubscribe.INSTANCE, resubscribeInterval);
+            ClusterSharding sharding = ClusterSharding.get(ctx.getSystem());
+            ActorRef<OrderEntity.OrderSummary> published = ctx.messageAdapter(OrderEntity.OrderSummary.class, Published::new);
+            Map<String, Set<ActorRef<OrderEntity.OrderSummary>>> listenersByOrder = new HashMap<>();
+
+            return Behaviors.receive(ListenersCommand.class)
+                    .onMessage(Listen.class, command -> {
+                        Set<ActorRef<OrderEntity.OrderSummary>> orderListeners = listenersByOrder.get(command.orderId);
+                        if (orderListeners == null) {
+                            orderListeners = new HashSet<>();
+                            listenersByOrder.put(command.orderId, orderListeners);
+                            sharding.entityRefFor(OrderEntity.ENTITY_KEY, command.orderId)
+                                    .tell(new OrderEntity.SubscribeUpdates(published));
+                        }
+                        orderListeners.add(command.listener);
+                        ctx.watchWith(command.listener, new ListenerStopped(command.orderId, command.listener));
+                        return Behaviors.same();
+                    })
+                    .onMessage(ListenerStopped.class, command -> {
+                        Set<ActorRef<OrderEntity.OrderSummary>> orderListeners = listenersByOrder.get(command.orderId);
+                        if (orderListeners != null && orderListeners.remove(command.listener) && orderListeners.isEmpty()) {
+                            listenersByOrder.remove(command.orderId);
+                            sharding.entityRefFor(OrderEntity.ENTITY_KEY, command.orderId)
+                                    .tell(new OrderEntity.UnsubscribeUpdates(published));
+                        }
+                        return Behaviors.same();
+                    })
+                    .onMessage(Published.class, command -> {
+                        Set<ActorRef<OrderEntity.OrderSummary>> orderListeners = listenersByOrder.get(command.summary.id);
+                        if (orderListeners != null) {
+                            orderListeners.forEach(listener -> listener.tell(command.summary));
+                        }
+                        return Behaviors.same();
+                    })
+                    .onMessageEquals(Resubscribe.INSTANCE, () -> {
+                        // an order keeps its subscribers in memory only, they are lost when it stops
+                        listenersByOrder.keySet().forEach(orderId -> sharding.entityRefFor(OrderEntity.ENTITY_KEY, orderId)
+                                .tell(new OrderEntity.SubscribeUpdates(published)));
+                        return Behaviors.same();
+                    })
+                    .build();
+        }));
+    }
+
+    public static OrderUpdates get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderUpdates> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderUpdates createExtension(ActorSystem<?> system) {
+            return new OrderUpdates(system);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.btrajkovski.orders;
+
+import akka.actor.typed.ActorSystem;
+
+import java.util.UUID;
+
+/**
+ * Random UUIDs, the ids orders had before. Every id goes through the shared SecureRandom of {@link UUID}, and the
+ * ids are spread over the whole key range of the journal.
+ */
+public class RandomIdGenerator implements OrderIdGenerator {
+
+    public RandomIdGenerator(ActorSystem<?> system) {
+    }
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,64 @@
+package com.btrajkovski.orders;
+
+import akka.actor.typed.ActorSystem;
+import akka.cluster.typed.Cluster;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Version 7 UUIDs, which start with the time in milliseconds, so new orders are added at the end of the journal
+ * primary key instead of all over it. Instead of random bits the rest is a per node sequence and the node, the
+ * random uid of the cluster member, so ids are unique without coordination.
+ * <ul>
+ *     <li>48 bits: milliseconds since the epoch</li>
+ *     <li>4 bits: version 7</li>
+ *     <li>12 + 10 bits: sequence within the millisecond, split by the variant</li>
+ *     <li>2 bits: variant</li>
+ *     <li>52 bits: node</li>
+ * </ul>
+ * The time and sequence are one counter that moves forward with a compare and set, by one per id and at least to
+ * the current time. Ids of a node are increasing even when the clock goes back, they run ahead of the clock
+ * instead, and a millisecond holds 4M ids before the next one is borrowed.
+ */
+public class TimeOrderedIdGenerator implements OrderIdGenerator {
+    private static final int SEQUENCE_BITS = 22;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long NODE_MASK = (1L << 52) - 1;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    private final AtomicLong lastTick = new AtomicLong();
+    private final long node;
+    private final LongSupplier clock;
+
+    public TimeOrderedIdGenerator(ActorSystem<?> system) {
+        this(Cluster.get(system).selfMember().uniqueAddress().longUid(), System::currentTimeMillis);
+    }
+
+    /**
+     * Generator reading the time in milliseconds from clock
+     */
+    TimeOrderedIdGenerator(long node, LongSupplier clock) {
+        this.node = node & NODE_MASK;
+        this.clock = clock;
+    }
+
+    /**
+     * Generator of a node outside of a cluster, the lower 52 bits of node must be unique among the nodes
+     */
+    public static TimeOrderedIdGenerator forNode(long node) {
+        return new TimeOrderedIdGenerator(node, System::currentTimeMillis);
+    }
+
+    @Override
+    public String nextId() {
+        long now = clock.getAsLong() << SEQUENCE_BITS;
+        long tick = lastTick.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+        long sequence = tick & SEQUENCE_MASK;
+        long mostSigBits = (tick >>> SEQUENCE_BITS) << 16 | VERSION | sequence >>> 10;
+        long leastSigBits = VARIANT | (sequence & 0x3FF) << 52 | node;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
@@ -0,0 +1,206 @@
+package com.btrajkovski.projection;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.javadsl.EventsByTagQuery;
+import akka.stream.RestartSettings;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Source;
+import com.btrajkovski.orders.OrderEntity;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per node counts of the orders in each status and of the orders and items of each user, kept in memory for
+ * dashboards. On start the counts are loaded from the orders view together with the offsets the view projection
+ * stored, and from there on every node follows the events of all tags itself, so reads never leave the node.
+ * <p>
+ * Status counts are striped counters. The users are an open addressing table of ids and int counts
+ * ({@link UserCounters}), measured at about 105 bytes per user with UUID user ids, most of it the id itself. A
+ * million orders cost 105 MB at most, with every order placed by a different user, and 11 MB at 10 orders per user.
+ */
+public class OrderStatistics implements Extension {
+    private static final Logger log = LoggerFactory.getLogger(OrderStatistics.class);
+
+    private final LongAdder[] byStatus = new LongAdder[OrderEntity.OrderStatus.values().length];
+    private final UserCounters users = new UserCounters();
+    private final Map<String, Offset> offsets = new ConcurrentHashMap<>();
+    private final OrdersViewRepository repository;
+    private final RestartSettings restartSettings;
+    private final Duration loadRetryDelay;
+    private final ActorSystem<?> system;
+    private volatile boolean ready;
+
+    private OrderStatistics(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("my-app.order-statistics");
+        this.system = system;
+        this.repository = OrdersViewProjection.createRepository(system);
+        this.restartSettings = RestartSettings.create(
+                config.getDuration("restart-min-backoff"), config.getDuration("restart-max-backoff"), 0.2);
+        this.loadRetryDelay = config.getDuration("restart-min-backoff");
+        for (int i = 0; i < byStatus.length; i++) {
+            byStatus[i] = new LongAdder();
+        }
+        load();
+    }
+
+    /**
+     * Loads the counts and offsets of the orders view, then follows the events after them. When loading fails
+     * the partial counts are dropped and loading is tried again after restart-min-backoff.
+     */
+    private void load() {
+        repository.loadStatistics(this, OrdersViewProjection.PROJECTION_NAME).whenComplete((loaded, error) -> {
+            if (error != null) {
+                log.error("Loading order statistics from the orders view failed, retrying", error);
+                clear();
+                system.scheduler().scheduleOnce(loadRetryDelay, this::load,
+                        system.dispatchers().lookup(DispatcherSelector.defaultDispatcher()));
+                return;
+            }
+            offsets.putAll(loaded);
+            log.info("Loaded order statistics of {} users from the orders view", usersCount());
+            ready = true;
+            follow();
+        });
+    }
+
+    private void follow() {
+        EventsByTagQuery readJournal = PersistenceQuery.get(system).getReadJournalFor(EventsByTagQuery.class,
+                system.settings().config().getString("my-app.read-journal-plugin"));
+
+        // the offset of each tag moves as its events are emitted, so a restarted stream continues after the last
+        // event passed on, and each event is counted once
+        Source.from(OrderEntity.TAGS)
+                .flatMapMerge(OrderEntity.TAGS.size(), tag ->
+                        RestartSource.withBackoff(restartSettings, () ->
+                                readJournal.eventsByTag(tag, offsets.getOrDefault(tag, Offset.noOffset()))
+                                        .map(envelope -> {
+                                            offsets.put(tag, envelope.offset());
+                                            return envelope;
+                                        })))
+                .runForeach(envelope -> apply((OrderEntity.Event) envelope.event()), system);
+    }
+
+    /**
+     * Counts an event of an order. Orders only move forward, so each event moves one order to the next status.
+     */
+    public void apply(OrderEntity.Event event) {
+        if (event instanceof OrderEntity.OrderCreated) {
+            OrderEntity.OrderCreated created = (OrderEntity.OrderCreated) event;
+            addOrder(created.userId, OrderEntity.OrderStatus.CREATED, created.items.size());
+        } else if (event instanceof OrderEntity.OrderPaid) {
+            move(OrderEntity.OrderStatus.CREATED, OrderEntity.OrderStatus.PAID);
+        } else if (event instanceof OrderEntity.OrderWasInFulfilment) {
+            move(OrderEntity.OrderStatus.PAID, OrderEntity.OrderStatus.IN_FULFILLMENT);
+        } else if (event instanceof OrderEntity.OrderClosed) {
+            move(OrderEntity.OrderStatus.IN_FULFILLMENT, OrderEntity.OrderStatus.CLOSED);
+        }
+    }
+
+    void addOrder(String userId, OrderEntity.OrderStatus status, int itemCount) {
+        byStatus[status.ordinal()].increment();
+        if (userId != null) {
+            synchronized (users) {
+                users.add(userId, 1, itemCount);
+            }
+        }
+    }
+
+    private void move(OrderEntity.OrderStatus from, OrderEntity.OrderStatus to) {
+        byStatus[from.ordinal()].decrement();
+        byStatus[to.ordinal()].increment();
+    }
+
+    private void clear() {
+        for (LongAdder count : byStatus) {
+            count.reset();
+        }
+        synchronized (users) {
+            users.clear();
+        }
+    }
+
+    private int usersCount() {
+        synchronized (users) {
+            return users.size();
+        }
+    }
+
+    /**
+     * False until the counts are loaded from the orders view, they are incomplete before that
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Summary summary(Optional<String> userId) {
+        Map<OrderEntity.OrderStatus, Long> counts = new EnumMap<>(OrderEntity.OrderStatus.class);
+        long total = 0;
+        for (OrderEntity.OrderStatus status : OrderEntity.OrderStatus.values()) {
+            long count = byStatus[status.ordinal()].sum();
+            counts.put(status, count);
+            total += count;
+        }
+        return new Summary(total, counts, userId.map(this::ofUser).orElse(null));
+    }
+
+    private UserSummary ofUser(String userId) {
+        synchronized (users) {
+            return new UserSummary(userId, users.orders(userId), users.items(userId));
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Summary {
+        public final long orders;
+        public final Map<OrderEntity.OrderStatus, Long> byStatus;
+        public final UserSummary user;
+
+        public Summary(long orders, Map<OrderEntity.OrderStatus, Long> byStatus, UserSummary user) {
+            this.orders = orders;
+            this.byStatus = byStatus;
+            this.user = user;
+        }
+    }
+
+    public static class UserSummary {
+        public final String userId;
+        public final int orders;
+        public final int items;
+
+        public UserSummary(String userId, int orders, int items) {
+            this.userId = userId;
+            this.orders = orders;
+            this.items = items;
+        }
+    }
+
+    public static OrderStatistics get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderStatistics> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderStatistics createExtension(ActorSystem<?> system) {
+            return new OrderStatistics(system);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.btrajkovski.projection;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import com.btrajkovski.metrics.PoolMetrics;
+import com.typesafe.config.Config;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * Connection pool for the read side tables, shared by the projections and the query routes of one node
+ */
+public class OrdersDataSource implements Extension {
+    private final HikariDataSource dataSource;
+
+    private OrdersDataSource(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("jdbc-connection-settings");
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("orders-read-side");
+        hikariConfig.setJdbcUrl(config.getString("url"));
+        hikariConfig.setUsername(config.getString("user"));
+        hikariConfig.setPassword(config.getString("password"));
+        hikariConfig.setMaximumPoolSize(config.getInt("connection-pool.max-pool-size"));
+        hikariConfig.setConnectionTimeout(config.getDuration("connection-pool.timeout").toMillis());
+        hikariConfig.setAutoCommit(false);
+
+        dataSource = new HikariDataSource(hikariConfig);
+        PoolMetrics.track(dataSource);
+        system.getWhenTerminated().thenRun(dataSource::close);
+    }
+
+    public DataSource dataSource() {
+        return dataSource;
+    }
+
+    public static OrdersDataSource get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrdersDataSource> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrdersDataSource createExtension(ActorSystem<?> system) {
+            return new OrdersDataSource(system);
+        }
+    }
+}
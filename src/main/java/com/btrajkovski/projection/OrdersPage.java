@@ -0,0 +1,19 @@
+package com.btrajkovski.projection;
+
+import com.btrajkovski.orders.OrderEntity;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Orders of one page of an {@link OrdersQuery}, next is where the following page starts if there is one
+ */
+public class OrdersPage {
+    public final List<OrderEntity.OrderSummary> orders;
+    public final Optional<OrdersQuery.Position> next;
+
+    public OrdersPage(List<OrderEntity.OrderSummary> orders, Optional<OrdersQuery.Position> next) {
+        this.orders = orders;
+        this.next = next;
+    }
+}
@@ -0,0 +1,56 @@
+package com.btrajkovski.projection;
+
+import com.btrajkovski.orders.OrderEntity;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Filters of a listing of the orders view and the page of it to read. Orders are listed newest first, ordered by
+ * creation time and then by id, so a page continues right after the last order of the previous one.
+ */
+public class OrdersQuery {
+    public final Optional<String> userId;
+    public final Optional<OrderEntity.OrderStatus> status;
+    /**
+     * Created at or after
+     */
+    public final Optional<Instant> createdFrom;
+    /**
+     * Created before
+     */
+    public final Optional<Instant> createdTo;
+    public final Optional<Position> after;
+    public final int limit;
+
+    public OrdersQuery(Optional<String> userId, Optional<OrderEntity.OrderStatus> status,
+                       Optional<Instant> createdFrom, Optional<Instant> createdTo,
+                       Optional<Position> after, int limit) {
+        this.userId = userId;
+        this.status = status;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+        this.after = after;
+        this.limit = limit;
+    }
+
+    /**
+     * The same query for the page that starts after the given position
+     */
+    public OrdersQuery startingAfter(Position position) {
+        return new OrdersQuery(userId, status, createdFrom, createdTo, Optional.of(position), limit);
+    }
+
+    /**
+     * Place of an order in the listing
+     */
+    public static class Position {
+        public final long createdAt;
+        public final String orderId;
+
+        public Position(long createdAt, String orderId) {
+            this.createdAt = createdAt;
+            this.orderId = orderId;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.btrajkovski.projection;
+
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.jdbc.javadsl.JdbcHandler;
+import com.btrajkovski.orders.OrderEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies {@link OrderEntity} events to the orders_view table
+ */
+public class OrdersViewHandler extends JdbcHandler<EventEnvelope<OrderEntity.Event>, PlainJdbcSession> {
+    private static final Logger log = LoggerFactory.getLogger(OrdersViewHandler.class);
+    private final OrdersViewRepository repository;
+
+    public OrdersViewHandler(OrdersViewRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void process(PlainJdbcSession session, EventEnvelope<OrderEntity.Event> envelope) throws Exception {
+        OrderEntity.Event event = envelope.event();
+        long timestamp = envelope.timestamp();
+
+        session.withConnection(connection -> {
+            if (event instanceof OrderEntity.OrderCreated) {
+                OrderEntity.OrderCreated created = (OrderEntity.OrderCreated) event;
+                repository.insertOrder(connection, created.orderId, created.userId, created.items, timestamp);
+            } else if (event instanceof OrderEntity.OrderPaid) {
+                repository.updateStatus(connection, event.orderId, OrderEntity.OrderStatus.PAID, timestamp);
+            } else if (event instanceof OrderEntity.OrderWasInFulfilment) {
+                repository.updateStatus(connection, event.orderId, OrderEntity.OrderStatus.IN_FULFILLMENT, timestamp);
+            } else if (event instanceof OrderEntity.OrderClosed) {
+                OrderEntity.OrderClosed closed = (OrderEntity.OrderClosed) event;
+                repository.closeOrder(connection, closed.orderId, closed.isShippedSuccessfully, timestamp);
+            } else {
+                log.debug("Ignoring event {} in orders view", event.getClass().getName());
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package com.btrajkovski.projection;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
+import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
+import akka.persistence.query.Offset;
+import akka.projection.ProjectionBehavior;
+import akka.projection.ProjectionId;
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.eventsourced.javadsl.EventSourcedProvider;
+import akka.projection.javadsl.ExactlyOnceProjection;
+import akka.projection.javadsl.SourceProvider;
+import akka.projection.jdbc.javadsl.JdbcProjection;
+import com.btrajkovski.orders.OrderEntity;
+
+import javax.sql.DataSource;
+import java.util.Optional;
+
+/**
+ * Keeps the orders_view table up to date, one projection instance per {@link OrderEntity#TAGS} tag
+ * distributed over the cluster with sharded daemon process
+ */
+public class OrdersViewProjection {
+    public static final String PROJECTION_NAME = "OrdersViewProjection";
+
+    private OrdersViewProjection() {
+    }
+
+    public static void init(ActorSystem<?> system) {
+        OrdersViewRepository repository = createRepository(system);
+        DataSource dataSource = OrdersDataSource.get(system).dataSource();
+
+        ShardedDaemonProcess.get(system).init(
+                ProjectionBehavior.Command.class,
+                PROJECTION_NAME,
+                OrderEntity.TAGS.size(),
+                index -> ProjectionBehavior.create(createProjectionFor(system, dataSource, repository, index)),
+                ShardedDaemonProcessSettings.create(system),
+                Optional.of(ProjectionBehavior.stopMessage()));
+    }
+
+    /**
+     * Repository for the orders_view table, queries run on the same blocking dispatcher the JDBC projections use
+     */
+    public static OrdersViewRepository createRepository(ActorSystem<?> system) {
+        return new OrdersViewRepository(
+                OrdersDataSource.get(system).dataSource(),
+                system.dispatchers().lookup(DispatcherSelector.fromConfig("akka.projection.jdbc.blocking-jdbc-dispatcher")));
+    }
+
+    private static ExactlyOnceProjection<Offset, EventEnvelope<OrderEntity.Event>> createProjectionFor(
+            ActorSystem<?> system, DataSource dataSource, OrdersViewRepository repository, int index) {
+        String tag = OrderEntity.TAGS.get(index);
+
+        String readJournalPluginId = system.settings().config().getString("my-app.read-journal-plugin");
+        SourceProvider<Offset, EventEnvelope<OrderEntity.Event>> sourceProvider =
+                EventSourcedProvider.eventsByTag(system, readJournalPluginId, tag);
+
+        return JdbcProjection.exactlyOnce(
+                ProjectionId.of(PROJECTION_NAME, tag),
+                sourceProvider,
+                () -> new PlainJdbcSession(dataSource),
+                () -> new OrdersViewHandler(repository),
+                system);
+    }
+}
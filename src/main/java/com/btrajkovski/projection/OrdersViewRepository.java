@@ -0,0 +1,238 @@
+package com.btrajkovski.projection;
+
+import akka.persistence.query.Offset;
+import com.btrajkovski.orders.OrderEntity;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * SQL access to the orders_view table. Writes run inside the projection's transaction,
+ * reads borrow a connection from the pool and run on the given blocking executor.
+ */
+public class OrdersViewRepository {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int STATISTICS_FETCH_SIZE = 1000;
+    private static final TypeReference<List<String>> ITEMS_TYPE = new TypeReference<>() {
+    };
+
+    private final DataSource dataSource;
+    private final Executor blockingExecutor;
+
+    public OrdersViewRepository(DataSource dataSource, Executor blockingExecutor) {
+        this.dataSource = dataSource;
+        this.blockingExecutor = blockingExecutor;
+    }
+
+    public void insertOrder(Connection connection, String orderId, String userId, List<String> items, long timestamp) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO orders_view (order_id, user_id, status, items, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+            statement.setString(1, orderId);
+            statement.setString(2, userId);
+            statement.setString(3, OrderEntity.OrderStatus.CREATED.name());
+            statement.setString(4, writeItems(items));
+            statement.setLong(5, timestamp);
+            statement.setLong(6, timestamp);
+            statement.executeUpdate();
+        }
+    }
+
+    public void updateStatus(Connection connection, String orderId, OrderEntity.OrderStatus status, long timestamp) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE orders_view SET status = ?, updated_at = ? WHERE order_id = ?")) {
+            statement.setString(1, status.name());
+            statement.setLong(2, timestamp);
+            statement.setString(3, orderId);
+            statement.executeUpdate();
+        }
+    }
+
+    public void closeOrder(Connection connection, String orderId, boolean isShippedSuccessfully, long timestamp) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE orders_view SET status = ?, is_shipped_successfully = ?, updated_at = ? WHERE order_id = ?")) {
+            statement.setString(1, OrderEntity.OrderStatus.CLOSED.name());
+            statement.setBoolean(2, isShippedSuccessfully);
+            statement.setLong(3, timestamp);
+            statement.setString(4, orderId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * One page of the orders matching the query. Every filter and the position of the page are conditions on
+     * indexed columns, so a page only reads the rows it returns and one more, which tells if there is a next page.
+     */
+    public CompletionStage<OrdersPage> findOrders(OrdersQuery query) {
+        return CompletableFuture.supplyAsync(() -> {
+            StringBuilder sql = new StringBuilder(
+                    "SELECT order_id, user_id, status, items, is_shipped_successfully, created_at FROM orders_view WHERE 1 = 1");
+            query.userId.ifPresent(userId -> sql.append(" AND user_id = ?"));
+            query.status.ifPresent(status -> sql.append(" AND status = ?"));
+            query.createdFrom.ifPresent(from -> sql.append(" AND created_at >= ?"));
+            query.createdTo.ifPresent(to -> sql.append(" AND created_at < ?"));
+            query.after.ifPresent(after -> sql.append(" AND (created_at, order_id) < (?, ?)"));
+            sql.append(" ORDER BY created_at DESC, order_id DESC LIMIT ?");
+
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                int index = 1;
+                if (query.userId.isPresent()) {
+                    statement.setString(index++, query.userId.get());
+                }
+                if (query.status.isPresent()) {
+                    statement.setString(index++, query.status.get().name());
+                }
+                if (query.createdFrom.isPresent()) {
+                    statement.setLong(index++, query.createdFrom.get().toEpochMilli());
+                }
+                if (query.createdTo.isPresent()) {
+                    statement.setLong(index++, query.createdTo.get().toEpochMilli());
+                }
+                if (query.after.isPresent()) {
+                    statement.setLong(index++, query.after.get().createdAt);
+                    statement.setString(index++, query.after.get().orderId);
+                }
+                statement.setInt(index, query.limit + 1);
+
+                List<OrderEntity.OrderSummary> orders = new ArrayList<>();
+                Optional<OrdersQuery.Position> next = Optional.empty();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    long lastCreatedAt = 0;
+                    while (resultSet.next()) {
+                        if (orders.size() == query.limit) {
+                            OrderEntity.OrderSummary last = orders.get(orders.size() - 1);
+                            next = Optional.of(new OrdersQuery.Position(lastCreatedAt, last.id));
+                            break;
+                        }
+                        orders.add(toSummary(resultSet));
+                        lastCreatedAt = resultSet.getLong("created_at");
+                    }
+                }
+                connection.commit();
+                return new OrdersPage(orders, next);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, blockingExecutor);
+    }
+
+    /**
+     * Ids of the paid orders and orders in fulfilment last updated before the given time, in order of their id and
+     * starting after the given id, so all of them are read a page at a time
+     */
+    public CompletionStage<List<String>> findUnfinishedOrders(long updatedBefore, String afterOrderId, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                         "SELECT order_id FROM orders_view WHERE status IN (?, ?) AND updated_at < ? AND order_id > ? " +
+                                 "ORDER BY order_id LIMIT ?")) {
+                statement.setString(1, OrderEntity.OrderStatus.PAID.name());
+                statement.setString(2, OrderEntity.OrderStatus.IN_FULFILLMENT.name());
+                statement.setLong(3, updatedBefore);
+                statement.setString(4, afterOrderId);
+                statement.setInt(5, limit);
+                List<String> orderIds = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        orderIds.add(resultSet.getString("order_id"));
+                    }
+                }
+                connection.commit();
+                return orderIds;
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, blockingExecutor);
+    }
+
+    /**
+     * Adds every order of the view to the statistics and returns the offsets per tag the projection of the view
+     * stored. Both are read in one repeatable read transaction, so the events after the offsets are exactly the
+     * ones the view does not contain yet.
+     */
+    public CompletionStage<Map<String, Offset>> loadStatistics(OrderStatistics statistics, String projectionName) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                // the pool restores the isolation level when the connection is given back
+                connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                Map<String, Offset> offsets = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT projection_key, current_offset, manifest FROM akka_projection_offset_store WHERE projection_name = ?")) {
+                    statement.setString(1, projectionName);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            offsets.put(resultSet.getString("projection_key"),
+                                    toOffset(resultSet.getString("current_offset"), resultSet.getString("manifest")));
+                        }
+                    }
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement("SELECT user_id, status, items FROM orders_view")) {
+                    // streams the rows instead of reading all of them at once
+                    statement.setFetchSize(STATISTICS_FETCH_SIZE);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            statistics.addOrder(
+                                    resultSet.getString("user_id"),
+                                    OrderEntity.OrderStatus.valueOf(resultSet.getString("status")),
+                                    readItems(resultSet.getString("items")).size());
+                        }
+                    }
+                }
+                connection.commit();
+                return offsets;
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, blockingExecutor);
+    }
+
+    /**
+     * Offsets of the events by tag queries of the JDBC read journal are sequence numbers
+     */
+    private static Offset toOffset(String offset, String manifest) {
+        if (!manifest.equals("SEQ")) {
+            throw new IllegalStateException("Unexpected offset " + offset + " of type " + manifest + " in the offset store");
+        }
+        return Offset.sequence(Long.parseLong(offset));
+    }
+
+    private static OrderEntity.OrderSummary toSummary(ResultSet resultSet) throws SQLException {
+        boolean shipped = resultSet.getBoolean("is_shipped_successfully");
+        Boolean isShippedSuccessfully = resultSet.wasNull() ? null : shipped;
+        return new OrderEntity.OrderSummary(
+                resultSet.getString("order_id"),
+                readItems(resultSet.getString("items")),
+                OrderEntity.OrderStatus.valueOf(resultSet.getString("status")),
+                isShippedSuccessfully,
+                resultSet.getString("user_id"));
+    }
+
+    private static String writeItems(List<String> items) {
+        try {
+            return objectMapper.writeValueAsString(items);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize order items", e);
+        }
+    }
+
+    private static List<String> readItems(String items) {
+        try {
+            return objectMapper.readValue(items, ITEMS_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot deserialize order items " + items, e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.btrajkovski.projection;
+
+import akka.japi.function.Function;
+import akka.projection.jdbc.JdbcSession;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * {@link JdbcSession} over a pooled connection, the projection commits the offset and the view update in one transaction
+ */
+public class PlainJdbcSession implements JdbcSession {
+    private final Connection connection;
+
+    public PlainJdbcSession(DataSource dataSource) {
+        try {
+            this.connection = dataSource.getConnection();
+            this.connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public <Result> Result withConnection(Function<Connection, Result> func) throws Exception {
+        return func.apply(connection);
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        connection.commit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+}
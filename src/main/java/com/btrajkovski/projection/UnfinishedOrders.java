@@ -0,0 +1,113 @@
+package com.btrajkovski.projection;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
+import com.btrajkovski.orders.OrderEntity;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Starts the paid orders and orders in fulfilment of the orders view, so they request their shipment again after
+ * a crash or rebalance stopped them. Orders are not remembered by sharding, which would write to the journal on
+ * every activation and passivation of an order. Runs once in the cluster and starts a page of orders per interval.
+ */
+public class UnfinishedOrders {
+    public interface Command {
+    }
+
+    private enum Sweep implements Command {
+        INSTANCE
+    }
+
+    private static class PageFound implements Command {
+        final List<String> orderIds;
+        final Throwable error;
+
+        PageFound(List<String> orderIds, Throwable error) {
+            this.orderIds = orderIds;
+            this.error = error;
+        }
+    }
+
+    private final ActorContext<Command> context;
+    private final OrdersViewRepository repository;
+    private final ClusterSharding sharding;
+    private final Duration minAge;
+    private final int batchSize;
+    // the last order started by the sweep in progress, the next page starts after it
+    private String lastOrderId = "";
+    private boolean querying;
+
+    private UnfinishedOrders(ActorContext<Command> context, Duration minAge, int batchSize) {
+        this.context = context;
+        this.repository = OrdersViewProjection.createRepository(context.getSystem());
+        this.sharding = ClusterSharding.get(context.getSystem());
+        this.minAge = minAge;
+        this.batchSize = batchSize;
+    }
+
+    public static void init(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("my-app.unfinished-orders");
+        Duration interval = config.getDuration("interval");
+        Duration minAge = config.getDuration("min-age");
+        int batchSize = config.getInt("batch-size");
+        ShardedDaemonProcess.get(system).init(
+                Command.class,
+                "UnfinishedOrders",
+                1,
+                index -> create(interval, minAge, batchSize),
+                ShardedDaemonProcessSettings.create(system),
+                Optional.empty());
+    }
+
+    /**
+     * Starts up to batchSize orders every interval, of those not updated for minAge
+     */
+    public static Behavior<Command> create(Duration interval, Duration minAge, int batchSize) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers -> {
+            timers.startTimerWithFixedDelay(Sweep.INSTANCE, interval);
+            return new UnfinishedOrders(ctx, minAge, batchSize).behavior();
+        }));
+    }
+
+    private Behavior<Command> behavior() {
+        return Behaviors.receive(Command.class)
+                .onMessageEquals(Sweep.INSTANCE, this::onSweep)
+                .onMessage(PageFound.class, this::onPageFound)
+                .build();
+    }
+
+    private Behavior<Command> onSweep() {
+        if (!querying) {
+            querying = true;
+            long updatedBefore = System.currentTimeMillis() - minAge.toMillis();
+            context.pipeToSelf(repository.findUnfinishedOrders(updatedBefore, lastOrderId, batchSize), PageFound::new);
+        }
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onPageFound(PageFound page) {
+        querying = false;
+        if (page.error != null) {
+            context.getLog().warn("Finding unfinished orders in the orders view failed, retrying", page.error);
+            return Behaviors.same();
+        }
+        for (String orderId : page.orderIds) {
+            sharding.entityRefFor(OrderEntity.ENTITY_KEY, orderId).tell(OrderEntity.ResumeShipment.INSTANCE);
+        }
+        if (!page.orderIds.isEmpty()) {
+            context.getLog().info("Started {} unfinished orders", page.orderIds.size());
+        }
+        // a short page ends the sweep, the next one starts from the first order again
+        lastOrderId = page.orderIds.size() < batchSize ? "" : page.orderIds.get(page.orderIds.size() - 1);
+        return Behaviors.same();
+    }
+}
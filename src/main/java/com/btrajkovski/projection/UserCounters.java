@@ -0,0 +1,88 @@
+package com.btrajkovski.projection;
+
+import java.util.Arrays;
+
+/**
+ * Orders and items per user, in an open addressing table with linear probing. Counts are kept in int arrays next
+ * to the array of user ids, so a user costs a slot in three arrays and its id, instead of a map entry and boxed
+ * counts. Not thread safe, {@link OrderStatistics} guards it.
+ */
+class UserCounters {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] userIds = new String[INITIAL_CAPACITY];
+    private int[] orders = new int[INITIAL_CAPACITY];
+    private int[] items = new int[INITIAL_CAPACITY];
+    private int size;
+
+    void add(String userId, int orderCount, int itemCount) {
+        if ((size + 1) * 4L > userIds.length * 3L) {
+            resize();
+        }
+        int slot = slotOf(userIds, userId);
+        if (userIds[slot] == null) {
+            userIds[slot] = userId;
+            size++;
+        }
+        orders[slot] += orderCount;
+        items[slot] += itemCount;
+    }
+
+    int orders(String userId) {
+        int slot = slotOf(userIds, userId);
+        return userIds[slot] == null ? 0 : orders[slot];
+    }
+
+    int items(String userId) {
+        int slot = slotOf(userIds, userId);
+        return userIds[slot] == null ? 0 : items[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(userIds, null);
+        Arrays.fill(orders, 0);
+        Arrays.fill(items, 0);
+        size = 0;
+    }
+
+    /**
+     * Slot of the user, or the empty slot where it would be added
+     */
+    private static int slotOf(String[] userIds, String userId) {
+        int mask = userIds.length - 1;
+        int slot = mix(userId.hashCode()) & mask;
+        while (userIds[slot] != null && !userIds[slot].equals(userId)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Spreads the bits of the hash, user ids often share a prefix and differ at the end only
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void resize() {
+        String[] oldUserIds = userIds;
+        int[] oldOrders = orders;
+        int[] oldItems = items;
+        userIds = new String[oldUserIds.length * 2];
+        orders = new int[userIds.length];
+        items = new int[userIds.length];
+        for (int i = 0; i < oldUserIds.length; i++) {
+            if (oldUserIds[i] != null) {
+                int slot = slotOf(userIds, oldUserIds[i]);
+                userIds[slot] = oldUserIds[i];
+                orders[slot] = oldOrders[i];
+                items[slot] = oldItems[i];
+            }
+        }
+    }
+}
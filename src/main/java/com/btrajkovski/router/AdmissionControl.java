@@ -0,0 +1,185 @@
+package com.btrajkovski.router;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.server.Complete;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.server.RouteResult;
+import akka.stream.javadsl.Flow;
+import akka.util.ByteString;
+import com.typesafe.config.Config;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+import java.util.function.Supplier;
+
+import static akka.http.javadsl.server.Directives.*;
+
+/**
+ * Per node limit of the requests being processed at the same time. Requests beyond the limit are rejected right
+ * away with 503 and Retry-After, instead of waiting for the orders until their asks time out.
+ * <p>
+ * The limit adapts to the load (additive increase, multiplicative decrease): it grows by one for a request
+ * completed while at least half of the limit was in use, and shrinks by backoff-ratio for a request that
+ * completed with a server error or took longer than latency-threshold.
+ * <p>
+ * Requests with a streamed response, which hold entity asks or a database connection until their stream ends,
+ * are limited separately to max-streams at the same time, and keep their slot until the response is sent.
+ */
+public class AdmissionControl implements Extension {
+    private static final Gauge IN_FLIGHT = Gauge.build()
+            .name("http_admission_in_flight")
+            .help("Requests admitted and not completed yet.")
+            .register();
+
+    private static final Gauge LIMIT = Gauge.build()
+            .name("http_admission_limit")
+            .help("Current limit of the requests admitted at the same time.")
+            .register();
+
+    private static final Counter REJECTED = Counter.build()
+            .name("http_admission_rejected_total")
+            .help("Requests rejected because the limit was reached, by route.")
+            .labelNames("route")
+            .register();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final long retryAfterSeconds;
+    private final int maxStreams;
+
+    private double limit;
+    private int inFlight;
+    private int streamsInFlight;
+
+    private AdmissionControl(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("my-app.routes.admission");
+        minLimit = config.getInt("min-limit");
+        maxLimit = config.getInt("max-limit");
+        backoffRatio = config.getDouble("backoff-ratio");
+        latencyThresholdNanos = config.getDuration("latency-threshold").toNanos();
+        retryAfterSeconds = Math.max(1, config.getDuration("retry-after").getSeconds());
+        maxStreams = config.getInt("max-streams");
+        limit = Math.max(minLimit, Math.min(maxLimit, config.getInt("initial-limit")));
+        LIMIT.set(limit);
+    }
+
+    /**
+     * Runs the inner route if the request is admitted. Failures and rejections must be handled inside of it,
+     * so that server errors can be told apart from the rest by their status.
+     */
+    public Route admit(String route, Supplier<Route> inner) {
+        return extractRequestContext(ctx -> {
+            if (!tryAcquire()) {
+                return rejected(route);
+            }
+            long start = System.nanoTime();
+            return mapRouteResultFuture(result -> result.whenComplete((routeResult, error) ->
+                    release(isOverloaded(routeResult, error, System.nanoTime() - start))), inner);
+        });
+    }
+
+    /**
+     * Like {@link #admit(String, Supplier)} for a route completing with a streamed response, whose slot is given
+     * back once the response has been sent or failed. Streams do not change the adaptive limit.
+     */
+    public Route admitStream(String route, Supplier<Route> inner) {
+        return extractRequestContext(ctx -> {
+            if (!tryAcquireStream()) {
+                return rejected(route);
+            }
+            return mapRouteResultFuture(result -> result.whenComplete((routeResult, error) -> {
+                if (!(routeResult instanceof Complete)) {
+                    releaseStream();
+                }
+            }), () -> mapResponse(this::releasedWhenSent, inner));
+        });
+    }
+
+    private HttpResponse releasedWhenSent(HttpResponse response) {
+        if (response.entity().isKnownEmpty() || response.entity().isStrict()) {
+            releaseStream();
+            return response;
+        }
+        return response.transformEntityDataBytes(Flow.<ByteString>create()
+                .watchTermination((notUsed, done) -> {
+                    done.whenComplete((ignored, error) -> releaseStream());
+                    return notUsed;
+                }));
+    }
+
+    private Route rejected(String route) {
+        REJECTED.labels(route).inc();
+        return respondWithHeader(RetryAfter.create(retryAfterSeconds), () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE,
+                        new ErrorResponse("Too many requests in progress, retry later"), Jackson.marshaller()));
+    }
+
+    private boolean isOverloaded(RouteResult result, Throwable error, long elapsedNanos) {
+        if (error != null || elapsedNanos > latencyThresholdNanos) {
+            return true;
+        }
+        return result instanceof Complete && ((Complete) result).getResponse().status().intValue() >= 500;
+    }
+
+    /**
+     * Takes a slot for a request, every slot taken must be given back with {@link #release(boolean)}
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        IN_FLIGHT.set(inFlight);
+        return true;
+    }
+
+    public synchronized void release(boolean overloaded) {
+        if (overloaded) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        inFlight--;
+        IN_FLIGHT.set(inFlight);
+        LIMIT.set(limit);
+    }
+
+    /**
+     * Takes a slot for a streamed response, every slot taken must be given back with {@link #releaseStream()}
+     */
+    public synchronized boolean tryAcquireStream() {
+        if (streamsInFlight >= maxStreams) {
+            return false;
+        }
+        streamsInFlight++;
+        return true;
+    }
+
+    public synchronized void releaseStream() {
+        streamsInFlight--;
+    }
+
+    public static AdmissionControl get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<AdmissionControl> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public AdmissionControl createExtension(ActorSystem<?> system) {
+            return new AdmissionControl(system);
+        }
+    }
+}
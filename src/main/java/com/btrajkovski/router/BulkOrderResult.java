@@ -0,0 +1,33 @@
+package com.btrajkovski.router;
+
+import com.btrajkovski.orders.OrderEntity;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Outcome of one order of a bulk create request, index is the position of the order in the request body
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkOrderResult {
+    public final long index;
+    public final OrderEntity.OrderSummary order;
+    public final String errorMessage;
+
+    @JsonCreator
+    public BulkOrderResult(@JsonProperty("index") long index,
+                           @JsonProperty("order") OrderEntity.OrderSummary order,
+                           @JsonProperty("errorMessage") String errorMessage) {
+        this.index = index;
+        this.order = order;
+        this.errorMessage = errorMessage;
+    }
+
+    public static BulkOrderResult created(long index, OrderEntity.OrderSummary order) {
+        return new BulkOrderResult(index, order, null);
+    }
+
+    public static BulkOrderResult failed(long index, String errorMessage) {
+        return new BulkOrderResult(index, null, errorMessage);
+    }
+}
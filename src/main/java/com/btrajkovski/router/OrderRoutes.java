@@ -1,20 +1,69 @@
 package com.btrajkovski.router;
 
+import akka.NotUsed;
+import akka.japi.Pair;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.common.EntityStreamingSupport;
 import akka.http.javadsl.marshallers.jackson.Jackson;
-import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.*;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.Link;
+import akka.http.javadsl.model.headers.LinkParams;
+import akka.http.javadsl.model.headers.LinkValue;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.*;
 import akka.pattern.StatusReply;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.JsonFraming;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.btrajkovski.metrics.HttpMetrics;
 import com.btrajkovski.orders.CreateOrderRequest;
 import com.btrajkovski.orders.OrderEntity;
+import com.btrajkovski.orders.OrderShardOwners;
+import com.btrajkovski.orders.OrderIds;
+import com.btrajkovski.orders.OrderShards;
+import com.btrajkovski.orders.OrderUpdates;
+import com.btrajkovski.projection.OrderStatistics;
+import com.btrajkovski.projection.OrdersPage;
+import com.btrajkovski.projection.OrdersQuery;
+import com.btrajkovski.projection.OrdersViewProjection;
+import com.btrajkovski.projection.OrdersViewRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.typesafe.config.Config;
+import io.prometheus.client.Counter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.concurrent.ExecutionContextExecutor;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static akka.http.javadsl.server.Directives.*;
@@ -25,36 +74,360 @@ import static akka.http.javadsl.server.Directives.*;
 //#user-routes-class
 public class OrderRoutes {
     //#user-routes-class
+    /**
+     * Dispatcher the routes are run on, apart from the actors and the database work behind them
+     */
+    public static final String HTTP_DISPATCHER = "my-app.http-dispatcher";
+
+    /**
+     * Header of create requests that makes retries of the request return the order created by the first one
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+    // set on requests forwarded to the node of the order, which serves them itself
+    public static final String FORWARDED_BY_HEADER = "X-Forwarded-By-Node";
+
     private static final Logger log = LoggerFactory.getLogger(OrderRoutes.class);
+    private static final Counter ASK_TIMEOUTS = Counter.build()
+            .name("order_ask_timeouts_total")
+            .help("Asks to order entities that did not get a reply within the ask timeout, by command.")
+            .labelNames("command")
+            .register();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectReader createOrderRequestReader = objectMapper.readerFor(CreateOrderRequest.class);
+    private static final Marshaller<BulkOrderResult, ByteString> bulkResultMarshaller =
+            Marshaller.opaque(OrderRoutes::toJsonBytes);
+    private static final MediaType.WithFixedCharset APPLICATION_NDJSON =
+            MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8, "ndjson");
+    private static final String CSV_HEADER = "id,userId,items,status,isShippedSuccessfully\r\n";
+    private static final EntityStreamingSupport jsonArrayStreaming = EntityStreamingSupport.json();
+    private static final EntityStreamingSupport ndjsonStreaming = EntityStreamingSupport.json()
+            .withFramingRendererFlow(Flow.of(ByteString.class).map(json -> json.concat(ByteString.fromString("\n"))))
+            .withContentType(APPLICATION_NDJSON.toContentType());
+
     private final Duration askTimeout;
+    private final int bulkParallelism;
+    private final int bulkMaxOrderLength;
+    private final long bulkMaxRequestLength;
+    private final int maxPageSize;
+    private final int exportPageSize;
     private final ClusterSharding sharding;
+    private final OrdersViewRepository ordersView;
+    private final OrderSummaryCache orderCache;
+    private final OrderUpdates orderUpdates;
+    private final AdmissionControl admission;
+    private final OrderShardOwners shardLocations;
+    private final OrderIds orderIds;
+    private final OrderShards orderShards;
+    private final boolean forwardToOwner;
+    private final Http http;
+    private final OrderStatistics statistics;
+    private final Duration eventsKeepAlive;
+    private final int eventsBufferSize;
+    private final ExecutionContextExecutor executionContext;
 
     public OrderRoutes(ActorSystem<?> system) {
-        askTimeout = system.settings().config().getDuration("my-app.routes.ask-timeout");
+        Config config = system.settings().config();
+        askTimeout = config.getDuration("my-app.routes.ask-timeout");
+        bulkParallelism = config.getInt("my-app.routes.bulk-create.parallelism");
+        bulkMaxOrderLength = config.getBytes("my-app.routes.bulk-create.max-order-length").intValue();
+        bulkMaxRequestLength = config.getBytes("my-app.routes.bulk-create.max-request-length");
+        maxPageSize = config.getInt("my-app.orders-view.max-results");
+        exportPageSize = config.getInt("my-app.orders-view.export-page-size");
         sharding = ClusterSharding.get(system);
+        ordersView = OrdersViewProjection.createRepository(system);
+        orderCache = OrderSummaryCache.get(system);
+        orderUpdates = OrderUpdates.get(system);
+        admission = AdmissionControl.get(system);
+        shardLocations = OrderShardOwners.get(system);
+        orderIds = OrderIds.get(system);
+        orderShards = OrderShards.get(system);
+        forwardToOwner = config.getBoolean("my-app.routes.forward-to-owner");
+        http = Http.get(system);
+        statistics = OrderStatistics.get(system);
+        eventsKeepAlive = config.getDuration("my-app.routes.order-events.keep-alive");
+        eventsBufferSize = config.getInt("my-app.routes.order-events.buffer-size");
+        executionContext = system.dispatchers().lookup(DispatcherSelector.fromConfig(HTTP_DISPATCHER));
     }
 
     private CompletionStage<OrderEntity.OrderSummary> getOrder(String id) {
+        return orderCache.get(id, this::askOrder);
+    }
+
+    private CompletionStage<OrderEntity.OrderSummary> askOrder(String id) {
         EntityRef<OrderEntity.Command> entityRef = sharding.entityRefFor(OrderEntity.ENTITY_KEY, id);
-        return entityRef.askWithStatus(replyTo -> new OrderEntity.GetOrder(replyTo), askTimeout);
+        return countTimeouts("get-order", entityRef.askWithStatus(replyTo -> new OrderEntity.GetOrder(replyTo), askTimeout));
+    }
+
+    private static <T> CompletionStage<T> countTimeouts(String command, CompletionStage<T> reply) {
+        return reply.whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                ASK_TIMEOUTS.labels(command).inc();
+            }
+        });
+    }
+
+    /**
+     * Items and user of an order never change and its status only moves forward, so the order id and status
+     * identify the version of an order, and no two orders share a tag
+     */
+    static EntityTag entityTag(OrderEntity.OrderSummary summary) {
+        String version = summary.isShippedSuccessfully == null
+                ? summary.state.name()
+                : summary.state.name() + "-" + summary.isShippedSuccessfully;
+        return EntityTag.create(summary.id + "-" + version, false);
+    }
+
+    private CompletionStage<OrdersPage> findOrders(Map<String, String> parameters) {
+        int limit = Optional.ofNullable(parameters.get("limit")).map(OrderRoutes::parseLimit).orElse(maxPageSize);
+        return ordersView.findOrders(ordersQuery(parameters, Math.min(limit, maxPageSize)));
+    }
+
+    /**
+     * Query of a page of a listing from the parameters of the request: userId, status, createdFrom and createdTo
+     * as ISO-8601 instants, and cursor of the page as returned by the previous one
+     */
+    private static OrdersQuery ordersQuery(Map<String, String> parameters, int limit) {
+        return new OrdersQuery(
+                Optional.ofNullable(parameters.get("userId")),
+                Optional.ofNullable(parameters.get("status")).map(OrderRoutes::parseStatus),
+                Optional.ofNullable(parameters.get("createdFrom")).map(OrderRoutes::parseInstant),
+                Optional.ofNullable(parameters.get("createdTo")).map(OrderRoutes::parseInstant),
+                Optional.ofNullable(parameters.get("cursor")).map(OrderRoutes::decodeCursor),
+                limit);
+    }
+
+    /**
+     * All orders matching the filters of a listing, read from the orders view a page of export-page-size at a time
+     * when the response is ready for more, so only one page is held in memory whatever the number of orders.
+     * Orders created after the export started come before its first page and are not part of it. The limit of
+     * a listing is ignored, an export always has all matching orders.
+     */
+    private Source<OrderEntity.OrderSummary, NotUsed> exportOrders(Map<String, String> parameters) {
+        Optional<OrdersQuery> first = Optional.of(ordersQuery(parameters, exportPageSize));
+        return Source.unfoldAsync(first, query -> query
+                        .map(current -> ordersView.findOrders(current).thenApply(page ->
+                                Optional.of(Pair.create(page.next.map(current::startingAfter), page.orders))))
+                        .orElse(CompletableFuture.completedFuture(Optional.empty())))
+                .mapConcat(orders -> orders);
+    }
+
+    /**
+     * Export as one JSON object per line, or with format=csv as CSV with a header line
+     */
+    private static HttpResponse exportResponse(Optional<String> format, Source<OrderEntity.OrderSummary, NotUsed> orders) {
+        String requested = format.orElse("ndjson");
+        if (requested.equalsIgnoreCase("csv")) {
+            Source<ByteString, NotUsed> csv = Source.single(ByteString.fromString(CSV_HEADER))
+                    .concat(orders.map(order -> ByteString.fromString(toCsvLine(order))));
+            return HttpResponse.create().withEntity(HttpEntities.createChunked(ContentTypes.TEXT_CSV_UTF8, csv));
+        }
+        if (requested.equalsIgnoreCase("ndjson")) {
+            Source<ByteString, NotUsed> ndjson = orders.map(order ->
+                    ByteString.fromArray(objectMapper.writeValueAsBytes(order)).concat(ByteString.fromString("\n")));
+            return HttpResponse.create().withEntity(HttpEntities.createChunked(APPLICATION_NDJSON.toContentType(), ndjson));
+        }
+        throw new OrdersValidationException("Unknown export format " + requested + ", supported are ndjson and csv");
+    }
+
+    /**
+     * Items are joined with ';', fields with a separator, quote or line break in them are quoted
+     */
+    static String toCsvLine(OrderEntity.OrderSummary order) {
+        return String.join(",",
+                csvField(order.id),
+                csvField(order.userId),
+                csvField(String.join(";", order.items)),
+                order.state.name(),
+                order.isShippedSuccessfully == null ? "" : order.isShippedSuccessfully.toString()) + "\r\n";
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * Link to the next page, the same request with the cursor of the page that follows
+     */
+    private static Link nextPageLink(Uri uri, OrdersQuery.Position next) {
+        List<Pair<String, String>> parameters = uri.query().toList().stream()
+                .filter(parameter -> !parameter.first().equals("cursor"))
+                .collect(Collectors.toCollection(ArrayList::new));
+        parameters.add(Pair.create("cursor", encodeCursor(next)));
+        Uri nextPage = uri.toRelative().query(Query.create(parameters));
+        return Link.create(LinkValue.create(nextPage, LinkParams.next));
+    }
+
+    /**
+     * Cursors are opaque to clients, they hold the position of the last order of a page
+     */
+    static String encodeCursor(OrdersQuery.Position position) {
+        String cursor = position.createdAt + ":" + position.orderId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static OrdersQuery.Position decodeCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            return new OrdersQuery.Position(Long.parseLong(decoded.substring(0, separator)), decoded.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new OrdersValidationException("Invalid cursor " + cursor);
+        }
+    }
+
+    private static int parseLimit(String limit) {
+        try {
+            int parsed = Integer.parseInt(limit);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new OrdersValidationException("Limit must be a positive number, got " + limit);
+    }
+
+    private static Instant parseInstant(String instant) {
+        try {
+            return Instant.parse(instant);
+        } catch (DateTimeParseException e) {
+            throw new OrdersValidationException("Invalid ISO-8601 instant " + instant);
+        }
     }
 
-    private CompletionStage<OrderEntity.OrderSummary> createOrder(CreateOrderRequest createOrderRequest) {
+    /**
+     * Status changes of an order, starting with its current status and ending once it is closed. Updates are
+     * subscribed to before the order is read again, so a change between the first read and the subscription
+     * is not missed. Updates arriving late or twice are dropped because an order only moves forward.
+     */
+    private Source<ServerSentEvent, NotUsed> orderEvents(OrderEntity.OrderSummary current) {
+        Source<OrderEntity.OrderSummary, NotUsed> reread = Source.lazyCompletionStage(() -> askOrder(current.id))
+                .recoverWithRetries(1, Exception.class, Source::empty)
+                .mapMaterializedValue(notUsed -> NotUsed.getInstance());
+
+        return Source.single(current)
+                .merge(orderUpdates.updatesOf(current.id, eventsBufferSize))
+                .merge(reread)
+                .statefulMapConcat(() -> {
+                    OrderEntity.OrderSummary[] latest = {null};
+                    return summary -> {
+                        if (latest[0] != null && !isNewer(summary, latest[0])) {
+                            return Collections.emptyList();
+                        }
+                        latest[0] = summary;
+                        return Collections.singletonList(summary);
+                    };
+                })
+                .takeWhile(summary -> summary.state != OrderEntity.OrderStatus.CLOSED, true)
+                .map(summary -> ServerSentEvent.create(objectMapper.writeValueAsString(summary), summary.state.name()))
+                .keepAlive(eventsKeepAlive, ServerSentEvent::heartbeat);
+    }
+
+    private static boolean isNewer(OrderEntity.OrderSummary summary, OrderEntity.OrderSummary than) {
+        return summary.state.compareTo(than.state) > 0;
+    }
+
+    private static OrderEntity.OrderStatus parseStatus(String status) {
+        try {
+            return OrderEntity.OrderStatus.valueOf(status.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new OrdersValidationException("Unknown order status " + status);
+        }
+    }
+
+    static void validate(CreateOrderRequest createOrderRequest) {
         if (createOrderRequest.items == null || createOrderRequest.items.isEmpty()) {
             throw new OrdersValidationException("Order must contain at least 1 item");
         }
         if (createOrderRequest.items.stream().anyMatch(item -> item == null || item.length() < 3)) {
             throw new OrdersValidationException("Each item names must contain at least 3 characters");
         }
+    }
 
-        String orderId = UUID.randomUUID().toString();
+    /**
+     * Orders created with an idempotency key get an id derived from the key and the user, so a retry reaches
+     * the order created before and is answered with it instead of creating another one
+     */
+    static String orderIdFor(String userId, String idempotencyKey) {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new OrdersValidationException(
+                    IDEMPOTENCY_KEY_HEADER + " must contain between 1 and " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
+        return UUID.nameUUIDFromBytes((userId + "\n" + idempotencyKey).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private CompletionStage<OrderEntity.OrderSummary> createOrder(CreateOrderRequest createOrderRequest, Optional<String> idempotencyKey) {
+        validate(createOrderRequest);
+
+        String orderId = orderShards.orderId(createOrderRequest.userId, idempotencyKey
+                .map(key -> orderIdFor(createOrderRequest.userId, key))
+                .orElseGet(orderIds::nextId));
         EntityRef<OrderEntity.Command> entityRef = sharding.entityRefFor(OrderEntity.ENTITY_KEY, orderId);
-        return entityRef.askWithStatus(replyTo -> new OrderEntity.CreateOrder(createOrderRequest.items, createOrderRequest.userId, replyTo), askTimeout);
+        return countTimeouts("create-order",
+                entityRef.<OrderEntity.OrderSummary>askWithStatus(replyTo -> new OrderEntity.CreateOrder(createOrderRequest.items, createOrderRequest.userId, replyTo), askTimeout)
+                        .thenApply(this::cached));
+    }
+
+    /**
+     * Orders are framed one JSON object at a time, so the body can be a JSON array or newline delimited JSON
+     * and is never buffered as a whole. Results are emitted as soon as each order completes, not in request order.
+     */
+    private Source<BulkOrderResult, NotUsed> createOrders(Source<ByteString, ?> body) {
+        return body
+                .via(JsonFraming.objectScanner(bulkMaxOrderLength))
+                .zipWithIndex()
+                .mapAsyncUnordered(bulkParallelism, indexedOrder -> createBulkOrder(indexedOrder.first(), indexedOrder.second()))
+                .mapMaterializedValue(notUsed -> NotUsed.getInstance());
+    }
+
+    private CompletionStage<BulkOrderResult> createBulkOrder(ByteString json, long index) {
+        CompletionStage<OrderEntity.OrderSummary> created;
+        try {
+            created = createOrder(createOrderRequestReader.readValue(json.toArray()), Optional.empty());
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(BulkOrderResult.failed(index, "Invalid order: " + e.getMessage()));
+        } catch (OrdersValidationException e) {
+            return CompletableFuture.completedFuture(BulkOrderResult.failed(index, e.getMessage()));
+        }
+
+        return created.handle((summary, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                return BulkOrderResult.failed(index, cause.getMessage());
+            }
+            return BulkOrderResult.created(index, summary);
+        });
+    }
+
+    private static ByteString toJsonBytes(BulkOrderResult result) {
+        try {
+            return ByteString.fromArray(objectMapper.writeValueAsBytes(result));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize bulk order result", e);
+        }
+    }
+
+    private static EntityStreamingSupport streamingSupportFor(ContentType contentType) {
+        return contentType.mediaType().equals(APPLICATION_NDJSON) ? ndjsonStreaming : jsonArrayStreaming;
     }
 
     private CompletionStage<OrderEntity.OrderSummary> confirmOrder(String orderUuid) {
         EntityRef<OrderEntity.Command> entityRef = sharding.entityRefFor(OrderEntity.ENTITY_KEY, orderUuid);
-        return entityRef.askWithStatus(replyTo -> new OrderEntity.PayOrder(replyTo), askTimeout);
+        return countTimeouts("pay-order",
+                entityRef.<OrderEntity.OrderSummary>askWithStatus(replyTo -> new OrderEntity.PayOrder(replyTo), askTimeout).thenApply(this::cached));
+    }
+
+    private OrderEntity.OrderSummary cached(OrderEntity.OrderSummary summary) {
+        orderCache.put(summary);
+        return summary;
     }
 
     final ExceptionHandler exceptionHandler = ExceptionHandler.newBuilder()
@@ -88,51 +461,206 @@ public class OrderRoutes {
             )
             .build();
 
+    /**
+     * Counts and times the requests of one endpoint. Failures and rejections are handled inside, so their
+     * responses are recorded with the status they complete with.
+     */
+    private Route instrumented(String endpoint, Supplier<Route> inner) {
+        return HttpMetrics.timed(endpoint, () -> handled(inner));
+    }
+
+    /**
+     * Like {@link #instrumented(String, Supplier)}, for endpoints that wait on the orders or the database per request.
+     * They go through admission control, which answers 503 right away when too many requests are in progress.
+     */
+    private Route admitted(String endpoint, Supplier<Route> inner) {
+        return HttpMetrics.timed(endpoint, () -> admission.admit(endpoint, () -> handled(inner)));
+    }
+
+    /**
+     * Like {@link #admitted(String, Supplier)}, for endpoints streaming their response, which count against the
+     * streams of admission control until the response has been sent.
+     */
+    private Route streamed(String endpoint, Supplier<Route> inner) {
+        return HttpMetrics.timed(endpoint, () -> admission.admitStream(endpoint, () -> handled(inner)));
+    }
+
+    /**
+     * Proxies the request to the node of the order when forward-to-owner is on and another node hosts it.
+     * Forwarded requests are served where they arrive, also when the shard moved in the meantime.
+     */
+    private Route servedByOwner(String orderId, Supplier<Route> inner) {
+        if (!forwardToOwner) {
+            return inner.get();
+        }
+        String self = shardLocations.httpAddress();
+        return extractRequest(request -> forwardTarget(request, shardLocations.ownerOf(orderId), self)
+                .<Route>map(owner -> completeWithFuture(http.singleRequest(forwarded(request, owner, self))))
+                .orElseGet(inner));
+    }
+
+    /**
+     * Node to proxy the request to, none when this node or no known node hosts the order, or when the request
+     * has been forwarded already, so a request is proxied once at most
+     */
+    static Optional<String> forwardTarget(HttpRequest request, Optional<String> owner, String self) {
+        if (request.getHeader(FORWARDED_BY_HEADER).isPresent()) {
+            return Optional.empty();
+        }
+        return owner.filter(address -> !address.equals(self));
+    }
+
+    /**
+     * The request sent to the owner, host:port, marked as forwarded by this node
+     */
+    static HttpRequest forwarded(HttpRequest request, String owner, String self) {
+        if (request.getHeader(FORWARDED_BY_HEADER).isPresent()) {
+            throw new IllegalArgumentException("Request was forwarded already by " + request.getHeader(FORWARDED_BY_HEADER).get().value());
+        }
+        int port = owner.lastIndexOf(':');
+        Uri uri = request.getUri()
+                .scheme("http")
+                .host(owner.substring(0, port))
+                .port(Integer.parseInt(owner.substring(port + 1)));
+        return request.withUri(uri)
+                .removeHeader("Host")
+                .removeHeader("Timeout-Access")
+                .addHeader(RawHeader.create(FORWARDED_BY_HEADER, self));
+    }
+
+    private ShardOwners shardOwners(Optional<String> orderId, Optional<String> userId) {
+        Optional<String> shardId = orderId.map(orderShards::shardId).or(() -> userId.map(orderShards::shardOfUser));
+        Map<String, String> owners = shardLocations.shardOwners();
+        return new ShardOwners(orderShards.numberOfShards(), orderShards.userAffinity(),
+                shardId.orElse(null), shardId.map(owners::get).orElse(null), shardId.isPresent() ? null : owners);
+    }
+
+    private Route handled(Supplier<Route> inner) {
+        return handleRejections(rejectionHandler, () -> handleExceptions(exceptionHandler, inner));
+    }
+
     /**
      * This method creates one route (of possibly many more that will be part of your Web App)
      */
     //#all-routes
     public Route userRoutes() {
-        return
+        // continuations of the routes run on the HTTP dispatcher, also when the future completes on another one
+        return withExecutionContext(executionContext, () ->
                 pathPrefix("orders", () ->
                         concat(
                                 pathEnd(() ->
-                                        //#create-new-order endpoint
-                                        post(() ->
-                                                entity(
-                                                        Jackson.unmarshaller(CreateOrderRequest.class),
-                                                        order ->
-                                                                onSuccess(createOrder(order), performed -> {
-                                                                    log.info("Create result: {}", performed);
-                                                                    return complete(StatusCodes.CREATED, performed, Jackson.marshaller());
-                                                                })
-                                                )
+                                        concat(
+                                                //#create-new-order endpoint
+                                                post(() -> admitted("create-order", () ->
+                                                        optionalHeaderValueByName(IDEMPOTENCY_KEY_HEADER, idempotencyKey ->
+                                                                entity(
+                                                                        Jackson.unmarshaller(CreateOrderRequest.class),
+                                                                        order ->
+                                                                                onSuccess(createOrder(order, idempotencyKey), performed -> {
+                                                                                    log.debug("Create result: {}", performed);
+                                                                                    return complete(StatusCodes.CREATED, performed, Jackson.marshaller());
+                                                                                })
+                                                                )
+                                                        )
+                                                )),
+                                                //#find-orders endpoint, served from the orders view a page at a time, Link points to the next page
+                                                get(() -> admitted("find-orders", () ->
+                                                        parameterMap(parameters ->
+                                                                extractUri(uri ->
+                                                                        onSuccess(findOrders(parameters), page -> {
+                                                                            Route orders = complete(StatusCodes.OK, page.orders, Jackson.marshaller());
+                                                                            return page.next
+                                                                                    .map(next -> respondWithHeader(nextPageLink(uri, next), () -> orders))
+                                                                                    .orElse(orders);
+                                                                        })
+                                                                )
+                                                        )
+                                                ))
                                         )
                                 ),
-                                //get-order-by-id endpoint
-                                path(PathMatchers.segment(), (String orderUuid) ->
-                                        get(() ->
-                                                rejectEmptyResponse(() ->
-                                                        onSuccess(getOrder(orderUuid), performed -> {
-                                                                    log.info("Get order by uuid {}", orderUuid);
-                                                                    return complete(StatusCodes.OK, performed, Jackson.marshaller());
-                                                                }
+                                //#bulk-create-orders endpoint, request and response bodies are streamed
+                                path("bulk", () ->
+                                        post(() -> streamed("bulk-create-orders", () ->
+                                                extractRequestEntity(entity -> {
+                                                    if (entity.getContentLengthOption().orElse(0L) > bulkMaxRequestLength) {
+                                                        return complete(StatusCodes.PAYLOAD_TOO_LARGE, new ErrorResponse(
+                                                                "Bulk requests are limited to " + bulkMaxRequestLength + " bytes"), Jackson.marshaller());
+                                                    }
+                                                    // a streamed body of unknown length fails the response once it exceeds the limit
+                                                    return completeWithSource(
+                                                            createOrders(entity.withSizeLimit(bulkMaxRequestLength).getDataBytes()),
+                                                            bulkResultMarshaller,
+                                                            streamingSupportFor(entity.getContentType()));
+                                                })
+                                        ))
+                                ),
+                                //#export-orders endpoint, every order matching the filters of find-orders streamed from the orders view
+                                path("export", () ->
+                                        get(() -> streamed("export-orders", () ->
+                                                parameterMap(parameters ->
+                                                        parameterOptional("format", format ->
+                                                                complete(exportResponse(format, exportOrders(parameters)))
                                                         )
                                                 )
-                                        )
+                                        ))
+                                ),
+                                //#order-stats endpoint, counts of the orders by status and of one user, kept in memory by every node
+                                path("stats", () ->
+                                        get(() -> instrumented("order-stats", () ->
+                                                parameterOptional("userId", userId -> {
+                                                    if (!statistics.isReady()) {
+                                                        return respondWithHeader(RetryAfter.create(1L), () ->
+                                                                complete(StatusCodes.SERVICE_UNAVAILABLE,
+                                                                        new ErrorResponse("Order statistics are still loading"), Jackson.marshaller()));
+                                                    }
+                                                    return complete(StatusCodes.OK, statistics.summary(userId), Jackson.marshaller());
+                                                })
+                                        ))
+                                ),
+                                //#shard-owners endpoint, the node serving the orders of a shard, for load balancers routing by order or user
+                                path("shards", () ->
+                                        get(() -> instrumented("shard-owners", () ->
+                                                parameterOptional("orderId", orderId ->
+                                                        parameterOptional("userId", userId ->
+                                                                complete(StatusCodes.OK, shardOwners(orderId, userId), Jackson.marshaller())
+                                                        )
+                                                )
+                                        ))
+                                ),
+                                //get-order-by-id endpoint, served from the order cache and answers 304 when If-None-Match is current
+                                path(PathMatchers.segment(), (String orderUuid) ->
+                                        get(() -> admitted("get-order", () -> servedByOwner(orderUuid, () ->
+                                                onSuccess(getOrder(orderUuid), performed -> {
+                                                            log.trace("Get order by uuid {}", orderUuid);
+                                                            return conditional(entityTag(performed), () ->
+                                                                    rejectEmptyResponse(() ->
+                                                                            complete(StatusCodes.OK, performed, Jackson.marshaller())
+                                                                    )
+                                                            );
+                                                        }
+                                                ))
+                                        ))
+                                ),
+                                //#order-events endpoint, server sent events of the status changes of an order
+                                path(PathMatchers.segment().slash("events"), (String orderUuid) ->
+                                        get(() -> instrumented("order-events", () -> servedByOwner(orderUuid, () ->
+                                                onSuccess(getOrder(orderUuid), current ->
+                                                        completeOK(orderEvents(current), EventStreamMarshalling.toEventStream())
+                                                )
+                                        )))
                                 ),
                                 //#pay-order endpoint
                                 path(PathMatchers.segment().slash("confirm"), (String orderUuid) ->
-                                        get(() ->
+                                        get(() -> admitted("pay-order", () -> servedByOwner(orderUuid, () ->
                                                 rejectEmptyResponse(() ->
                                                         onSuccess(confirmOrder(orderUuid), performed ->
                                                                 complete(StatusCodes.OK, performed, Jackson.marshaller())
                                                         )
                                                 )
-                                        )
+                                        )))
                                 )
                         )
-                ).seal(rejectionHandler, exceptionHandler);
+                )).seal(rejectionHandler, exceptionHandler);
     }
     //#all-routes
 
@@ -0,0 +1,107 @@
+package com.btrajkovski.router;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import com.btrajkovski.orders.OrderEntity;
+import com.btrajkovski.orders.OrderUpdates;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Per node cache of the order summaries returned by GET /orders/{id}. Entries are replaced with the summaries the
+ * orders hosted by this node publish to {@link OrderUpdates} when they change, and with the replies to creates
+ * and pays made here. They expire after a time to live, which bounds how long a change made through another node
+ * stays unseen, and are evicted by size. Failed lookups are not cached.
+ */
+public class OrderSummaryCache implements Extension {
+    private final AsyncCache<String, Lookup> cache;
+
+    private OrderSummaryCache(ActorSystem<?> system) {
+        Config config = system.settings().config().getConfig("my-app.routes.order-cache");
+        cache = Caffeine.newBuilder()
+                .maximumSize(config.getLong("max-size"))
+                .expireAfterWrite(config.getDuration("time-to-live"))
+                .buildAsync();
+
+        OrderUpdates.get(system).listenLocally(this::update);
+    }
+
+    /**
+     * Returns the cached summary of the order, or loads it once for all concurrent requests of the same order
+     */
+    public CompletionStage<OrderEntity.OrderSummary> get(String orderId, Function<String, CompletionStage<OrderEntity.OrderSummary>> load) {
+        CompletableFuture<Lookup> lookup = cache.get(orderId, (id, executor) ->
+                load.apply(id).handle(Lookup::new).toCompletableFuture());
+
+        return lookup.thenCompose(result -> {
+            if (result.error != null) {
+                cache.asMap().remove(orderId, lookup);
+                return CompletableFuture.failedFuture(result.error);
+            }
+            return CompletableFuture.completedFuture(result.summary);
+        });
+    }
+
+    // Only orders that are cached already are updated, so orders nobody reads do not take up space
+    private void update(OrderEntity.OrderSummary summary) {
+        cache.asMap().computeIfPresent(summary.id, (id, cached) -> newer(cached, summary));
+    }
+
+    /**
+     * Caches the summary an order replied with to a create or pay on this node, so a get that follows it here
+     * returns it even before the update is published
+     */
+    public void put(OrderEntity.OrderSummary summary) {
+        cache.asMap().compute(summary.id, (id, cached) -> cached == null ? completed(summary) : newer(cached, summary));
+    }
+
+    // Orders only move forward, so a summary that arrives after one of a later status is dropped
+    private static CompletableFuture<Lookup> newer(CompletableFuture<Lookup> cached, OrderEntity.OrderSummary summary) {
+        Lookup current = cached.getNow(null);
+        if (current != null && current.summary != null && current.summary.state.compareTo(summary.state) > 0) {
+            return cached;
+        }
+        return completed(summary);
+    }
+
+    private static CompletableFuture<Lookup> completed(OrderEntity.OrderSummary summary) {
+        return CompletableFuture.completedFuture(new Lookup(summary, null));
+    }
+
+    /**
+     * Outcome of loading an order. Failed loads complete normally and are removed by the cache user, as the cache
+     * logs a warning for every load that completes exceptionally.
+     */
+    private static class Lookup {
+        final OrderEntity.OrderSummary summary;
+        final Throwable error;
+
+        Lookup(OrderEntity.OrderSummary summary, Throwable error) {
+            this.summary = summary;
+            this.error = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        }
+    }
+
+    public static OrderSummaryCache get(ActorSystem<?> system) {
+        return Id.instance.apply(system);
+    }
+
+    public static class Id extends ExtensionId<OrderSummaryCache> {
+        private static final Id instance = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderSummaryCache createExtension(ActorSystem<?> system) {
+            return new OrderSummaryCache(system);
+        }
+    }
+}
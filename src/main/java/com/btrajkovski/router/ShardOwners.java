@@ -0,0 +1,26 @@
+package com.btrajkovski.router;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+/**
+ * Which node serves the orders of a shard, by its HTTP address host:port. Either the shard of one order or user
+ * and its owner, or the owners of all shards that are located.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ShardOwners {
+    public final int numberOfShards;
+    public final boolean userAffinity;
+    public final String shardId;
+    public final String owner;
+    public final Map<String, String> owners;
+
+    public ShardOwners(int numberOfShards, boolean userAffinity, String shardId, String owner, Map<String, String> owners) {
+        this.numberOfShards = numberOfShards;
+        this.userAffinity = userAffinity;
+        this.shardId = shardId;
+        this.owner = owner;
+        this.owners = owners;
+    }
+}
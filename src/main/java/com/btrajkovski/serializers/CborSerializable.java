@@ -0,0 +1,7 @@
+package com.btrajkovski.serializers;
+
+/**
+ * Marker for messages, events and snapshots of the entities, serialized with jackson-cbor
+ */
+public interface CborSerializable {
+}
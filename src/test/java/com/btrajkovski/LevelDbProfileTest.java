@@ -0,0 +1,159 @@
+package com.btrajkovski;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import akka.japi.function.Function;
+import akka.pattern.StatusReply;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.journal.leveldb.javadsl.LeveldbReadJournal;
+import akka.persistence.typed.PersistenceId;
+import akka.stream.javadsl.Sink;
+import com.btrajkovski.orders.FulfilmentProvider;
+import com.btrajkovski.orders.OrderEntity;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Orders on the embedded LevelDB journal and local snapshot store of application-leveldb.conf, across restarts
+ * of the node
+ */
+public class LevelDbProfileTest {
+    private static final List<String> ITEMS = Arrays.asList("Asus GTX 2060", "Logitech MX518");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoverOrdersFromTheLevelDbJournal() throws Exception {
+        Config config = leveldbConfig();
+        assertThat(config.getString("akka.persistence.journal.plugin")).isEqualTo("akka.persistence.journal.leveldb");
+        assertThat(config.getBoolean("akka.persistence.journal.leveldb.native")).isTrue();
+
+        runNode(config, system -> {
+            assertThat(ask(system, "order-1", replyTo -> new OrderEntity.CreateOrder(ITEMS, "user-1", replyTo)).state)
+                    .isEqualTo(OrderEntity.OrderStatus.CREATED);
+            assertThat(ask(system, "order-2", replyTo -> new OrderEntity.CreateOrder(ITEMS, "user-2", replyTo)).state)
+                    .isEqualTo(OrderEntity.OrderStatus.CREATED);
+            assertThat(ask(system, "order-2", OrderEntity.PayOrder::new).state).isEqualTo(OrderEntity.OrderStatus.PAID);
+        });
+        assertThat(new File(folder.getRoot(), "journal").list()).isNotEmpty();
+
+        runNode(config, system -> {
+            OrderEntity.OrderSummary created = ask(system, "order-1", OrderEntity.GetOrder::new);
+            assertThat(created.state).isEqualTo(OrderEntity.OrderStatus.CREATED);
+            assertThat(created.items).isEqualTo(ITEMS);
+            assertThat(created.userId).isEqualTo("user-1");
+            assertThat(ask(system, "order-2", OrderEntity.GetOrder::new).state).isIn(
+                    OrderEntity.OrderStatus.PAID, OrderEntity.OrderStatus.IN_FULFILLMENT, OrderEntity.OrderStatus.CLOSED);
+
+            assertThat(events(system, "order-1")).containsExactly("1 OrderCreated");
+        });
+    }
+
+    @Test
+    public void recoverClosedOrdersFromTheirSnapshots() throws Exception {
+        Config config = leveldbConfig();
+
+        runNode(config, system -> {
+            ask(system, "order-1", replyTo -> new OrderEntity.CreateOrder(ITEMS, "user-1", replyTo));
+            ask(system, "order-1", OrderEntity.PayOrder::new);
+            // the fulfilment provider ships right away in tests
+            TestProbe<Object> probe = TestProbe.create(system);
+            probe.awaitAssert(Duration.ofSeconds(10), () -> {
+                assertThat(ask(system, "order-1", OrderEntity.GetOrder::new).state).isEqualTo(OrderEntity.OrderStatus.CLOSED);
+                assertThat(new File(folder.getRoot(), "snapshots").list()).isNotEmpty();
+                return null;
+            });
+        });
+
+        runNode(config, system -> {
+            OrderEntity.OrderSummary closed = ask(system, "order-1", OrderEntity.GetOrder::new);
+            assertThat(closed.state).isEqualTo(OrderEntity.OrderStatus.CLOSED);
+            assertThat(closed.isShippedSuccessfully).isNotNull();
+            assertThat(events(system, "order-1"))
+                    .containsExactly("1 OrderCreated", "2 OrderPaid", "3 OrderWasInFulfilment", "4 OrderClosed");
+        });
+    }
+
+    private Config leveldbConfig() {
+        return ConfigFactory.parseString(
+                        "akka.persistence.journal.leveldb.dir = \"" + new File(folder.getRoot(), "journal") + "\"\n"
+                                + "akka.persistence.snapshot-store.local.dir = \"" + new File(folder.getRoot(), "snapshots") + "\"\n"
+                                + "akka.remote.artery.canonical { hostname = \"127.0.0.1\", port = 0 }\n"
+                                + "akka.cluster.jmx.multi-mbeans-in-same-jvm = on\n"
+                                + "my-app.fulfilment-provider.shipping-delay = 0s")
+                .withFallback(ConfigFactory.load(LevelDbProfileTest.class.getClassLoader(), "application-leveldb.conf"));
+    }
+
+    /**
+     * Starts a node of one member on the journal of the config, runs the test against it and stops it, which
+     * closes the journal so the next node can open it
+     */
+    private static void runNode(Config config, Consumer<ActorSystem<?>> test) {
+        ActorTestKit testKit = ActorTestKit.create("LevelDbProfileTest", config);
+        try {
+            ActorSystem<?> system = testKit.system();
+            Cluster cluster = Cluster.get(system);
+            cluster.manager().tell(Join.create(cluster.selfMember().address()));
+            testKit.createTestProbe().awaitAssert(() -> {
+                assertThat(cluster.selfMember().status()).isEqualTo(MemberStatus.up());
+                return null;
+            });
+            OrderEntity.init(system);
+            FulfilmentProvider.init(system);
+
+            test.accept(system);
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    private static OrderEntity.OrderSummary ask(ActorSystem<?> system, String orderId,
+                                                Function<ActorRef<StatusReply<OrderEntity.OrderSummary>>, OrderEntity.Command> command) {
+        EntityRef<OrderEntity.Command> order = ClusterSharding.get(system).entityRefFor(OrderEntity.ENTITY_KEY, orderId);
+        try {
+            return order.<StatusReply<OrderEntity.OrderSummary>>ask(command, Duration.ofSeconds(5))
+                    .toCompletableFuture().get(5, TimeUnit.SECONDS)
+                    .getValue();
+        } catch (Exception e) {
+            throw new IllegalStateException("Asking order " + orderId + " failed", e);
+        }
+    }
+
+    private static List<String> events(ActorSystem<?> system, String orderId) {
+        LeveldbReadJournal readJournal = PersistenceQuery.get(Adapter.toClassic(system))
+                .getReadJournalFor(LeveldbReadJournal.class, system.settings().config().getString("my-app.read-journal-plugin"));
+        try {
+            return readJournal
+                    .currentEventsByPersistenceId(PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderId).id(), 0, Long.MAX_VALUE)
+                    .runWith(Sink.seq(), system)
+                    .toCompletableFuture().get(5, TimeUnit.SECONDS)
+                    .stream()
+                    .map(envelope -> envelope.sequenceNr() + " " + envelope.event().getClass().getSimpleName())
+                    .collect(Collectors.toList());
+        } catch (Exception e) {
+            throw new IllegalStateException("Reading the events of order " + orderId + " failed", e);
+        }
+    }
+}
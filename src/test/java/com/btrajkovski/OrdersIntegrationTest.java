@@ -2,29 +2,68 @@ package com.btrajkovski;
 
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.cluster.sharding.ShardRegion;
+import akka.cluster.sharding.typed.GetShardRegionState;
+import akka.cluster.sharding.typed.HashCodeMessageExtractor;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
-import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 import akka.cluster.typed.Cluster;
 import akka.cluster.typed.Join;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
 import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.EntityTagRange;
+import akka.http.javadsl.model.headers.IfNoneMatch;
+import akka.http.javadsl.model.headers.Link;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RetryAfter;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
+import akka.http.javadsl.testkit.TestRouteResult;
 import akka.pattern.StatusReply;
 import akka.persistence.testkit.PersistenceTestKitPlugin;
 import akka.persistence.testkit.javadsl.PersistenceTestKit;
+import akka.persistence.query.Offset;
 import akka.persistence.typed.PersistenceId;
+import akka.projection.eventsourced.EventEnvelope;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.btrajkovski.orders.FulfilmentProvider;
 import com.btrajkovski.orders.OrderEntity;
+import com.btrajkovski.orders.OrderShards;
+import com.btrajkovski.projection.OrderStatistics;
+import com.btrajkovski.projection.OrdersDataSource;
+import com.btrajkovski.projection.OrdersViewHandler;
+import com.btrajkovski.projection.OrdersViewProjection;
+import com.btrajkovski.projection.PlainJdbcSession;
+import com.btrajkovski.projection.UnfinishedOrders;
+import com.btrajkovski.router.AdmissionControl;
+import com.btrajkovski.router.BulkOrderResult;
 import com.btrajkovski.router.OrderRoutes;
+import com.btrajkovski.router.OrderSummaryCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.ConfigFactory;
 import org.junit.*;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -64,11 +103,8 @@ public class OrdersIntegrationTest extends JUnitRouteTest {
 
         Cluster cluster = Cluster.get(testKit.system());
         cluster.manager().tell(Join.create(cluster.selfMember().address()));
-        ClusterSharding.get(testKit.system())
-                .init(
-                        Entity.of(
-                                OrderEntity.ENTITY_KEY,
-                                entityContext -> OrderEntity.create(entityContext.getEntityId())));
+        OrderEntity.init(testKit.system());
+        FulfilmentProvider.init(testKit.system());
     }
 
     @Test
@@ -92,6 +128,32 @@ public class OrdersIntegrationTest extends JUnitRouteTest {
         persistenceTestKit.expectNextPersistedClass(PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderSummary.id).id(), OrderEntity.OrderCreated.class);
     }
 
+    @Test
+    public void createOrderOnceForRepeatedIdempotencyKey() {
+        String idempotencyKey = UUID.randomUUID().toString();
+        HttpRequest createOrder = HttpRequest.POST("/orders")
+                .addHeader(RawHeader.create(OrderRoutes.IDEMPOTENCY_KEY_HEADER, idempotencyKey))
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                        "{\"userId\": 1, \"items\": [\"Asus GTX 2060\"]}");
+
+        OrderEntity.OrderSummary created = appRoute.run(createOrder)
+                .assertStatusCode(StatusCodes.CREATED)
+                .entity(Jackson.unmarshaller(OrderEntity.OrderSummary.class));
+        String persistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), created.id).id();
+        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderCreated.class);
+
+        OrderEntity.OrderSummary retried = appRoute.run(createOrder)
+                .assertStatusCode(StatusCodes.CREATED)
+                .entity(Jackson.unmarshaller(OrderEntity.OrderSummary.class));
+        assertThat(retried.id).isEqualTo(created.id);
+        assertThat(retried.items).containsExactly("Asus GTX 2060");
+
+        appRoute.run(createOrder.withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                        "{\"userId\": 1, \"items\": [\"Logitech MX518\"]}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        persistenceTestKit.expectNothingPersisted(persistenceId);
+    }
+
     @Test
     public void throwBadRequestOnInvalidOrder() {
         appRoute.run(HttpRequest.POST("/orders")
@@ -119,15 +181,16 @@ public class OrdersIntegrationTest extends JUnitRouteTest {
                 .assertStatusCode(StatusCodes.OK)
                 .assertMediaType("application/json");
 
-        try {
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        // the order is passivated once it is closed, so it is recovered again by the get below
+        String persistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderId).id();
+        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderCreated.class);
+        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderPaid.class);
+        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderWasInFulfilment.class);
+        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderClosed.class);
 
         TestProbe<StatusReply<OrderEntity.OrderSummary>> getOrderProbe = testKit.createTestProbe();
         entityRef.tell(new OrderEntity.GetOrder(getOrderProbe.getRef()));
-        StatusReply<OrderEntity.OrderSummary> orderSummaryStatusReply = getOrderProbe.receiveMessage(Duration.ofMillis(100));
+        StatusReply<OrderEntity.OrderSummary> orderSummaryStatusReply = getOrderProbe.receiveMessage();
 
         assertThat(orderSummaryStatusReply.isSuccess()).isTrue();
 
@@ -138,12 +201,117 @@ public class OrdersIntegrationTest extends JUnitRouteTest {
         assertThat(orderSummary.state).isEqualTo(OrderEntity.OrderStatus.CLOSED);
         assertThat(orderSummary.items).containsExactly(itemName);
         assertThat(orderSummary.userId).isEqualTo(userId);
+        assertThat(orderSummary.id).isEqualTo(orderId);
+    }
+
+    @Test
+    public void passivateOrderOnceItIsClosed() {
+        TestProbe<StatusReply<OrderEntity.OrderSummary>> createOrderProbe = testKit.createTestProbe();
+        EntityRef<OrderEntity.Command> entityRef = ClusterSharding.get(testKit.system()).entityRefFor(OrderEntity.ENTITY_KEY, UUID.randomUUID().toString());
+        entityRef.tell(new OrderEntity.CreateOrder(Collections.singletonList("Dell U2719D"), "1", createOrderProbe.getRef()));
+        String orderId = createOrderProbe.receiveMessage().getValue().id;
+
+        assertThat(runningOrderIds()).contains(orderId);
+
+        appRoute.run(HttpRequest.GET(String.format("/orders/%s/confirm", orderId)))
+                .assertStatusCode(StatusCodes.OK);
 
-        String persistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderSummary.id).id();
+        String persistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderId).id();
         persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderCreated.class);
         persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderPaid.class);
         persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderWasInFulfilment.class);
-        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderClosed.class, Duration.ofMillis(100));
+        persistenceTestKit.expectNextPersistedClass(persistenceId, OrderEntity.OrderClosed.class);
+
+        createOrderProbe.awaitAssert(() -> assertThat(runningOrderIds()).doesNotContain(orderId));
+    }
+
+    @Test
+    public void resumeShipmentOfRecoveredFulfilmentProvider() {
+        String orderId = UUID.randomUUID().toString();
+        List<String> items = Collections.singletonList("Samsung 970 EVO");
+        String orderPersistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderId).id();
+        String fulfilmentPersistenceId = "fulfilment" + orderId;
+        persistenceTestKit.persistForRecovery(orderPersistenceId, Arrays.asList(
+                new OrderEntity.OrderCreated(orderId, items, "1"),
+                new OrderEntity.OrderPaid(orderId),
+                new OrderEntity.OrderWasInFulfilment(orderId)));
+        persistenceTestKit.persistForRecovery(fulfilmentPersistenceId, Collections.singletonList(
+                new FulfilmentProvider.ShipmentStarted(orderId, System.currentTimeMillis() - 60_000)));
+
+        // after a crash remember entities starts the provider again, here a repeated request to ship starts it
+        ClusterSharding.get(testKit.system()).entityRefFor(FulfilmentProvider.ENTITY_KEY, orderId)
+                .tell(new FulfilmentProvider.StartShipOrder(
+                        new OrderEntity.OrderSummary(orderId, items, OrderEntity.OrderStatus.PAID, null, "1")));
+
+        persistenceTestKit.expectNextPersistedClass(fulfilmentPersistenceId, FulfilmentProvider.OrderShippingEnded.class);
+        persistenceTestKit.expectNextPersistedClass(orderPersistenceId, OrderEntity.OrderClosed.class);
+    }
+
+    @Test
+    public void closeOrderWhoseCloseOrderWasLost() {
+        String orderId = UUID.randomUUID().toString();
+        List<String> items = Collections.singletonList("Crucial MX500");
+        String orderPersistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderId).id();
+        // the shipment ended but the order never received the CloseOrder of the provider
+        persistenceTestKit.persistForRecovery(orderPersistenceId, Arrays.asList(
+                new OrderEntity.OrderCreated(orderId, items, "1"),
+                new OrderEntity.OrderPaid(orderId),
+                new OrderEntity.OrderWasInFulfilment(orderId)));
+        persistenceTestKit.persistForRecovery("fulfilment" + orderId, Arrays.asList(
+                new FulfilmentProvider.ShipmentStarted(orderId, System.currentTimeMillis()),
+                new FulfilmentProvider.OrderShippingEnded(true)));
+
+        TestProbe<StatusReply<OrderEntity.OrderSummary>> probe = testKit.createTestProbe();
+        EntityRef<OrderEntity.Command> entityRef = ClusterSharding.get(testKit.system()).entityRefFor(OrderEntity.ENTITY_KEY, orderId);
+        entityRef.tell(new OrderEntity.GetOrder(probe.getRef()));
+        assertThat(probe.receiveMessage().getValue().state).isEqualTo(OrderEntity.OrderStatus.IN_FULFILLMENT);
+
+        persistenceTestKit.expectNextPersistedClass(orderPersistenceId, OrderEntity.OrderClosed.class);
+        entityRef.tell(new OrderEntity.GetOrder(probe.getRef()));
+        OrderEntity.OrderSummary closed = probe.receiveMessage().getValue();
+        assertThat(closed.state).isEqualTo(OrderEntity.OrderStatus.CLOSED);
+        assertThat(closed.isShippedSuccessfully).isTrue();
+    }
+
+    @Test
+    public void startUnfinishedOrdersOfTheOrdersView() throws Exception {
+        String orderId = UUID.randomUUID().toString();
+        List<String> items = Collections.singletonList("Kingston A2000");
+        String orderPersistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), orderId).id();
+        // a paid order stopped by a crash before its shipment started, orders are not remembered by sharding
+        persistenceTestKit.persistForRecovery(orderPersistenceId, Arrays.asList(
+                new OrderEntity.OrderCreated(orderId, items, "1"),
+                new OrderEntity.OrderPaid(orderId)));
+        applyToOrdersView(new OrderEntity.OrderCreated(orderId, items, "1"), new OrderEntity.OrderPaid(orderId));
+
+        ActorRef<UnfinishedOrders.Command> unfinishedOrders =
+                testKit.spawn(UnfinishedOrders.create(Duration.ofMillis(100), Duration.ZERO, 1000));
+        try {
+            persistenceTestKit.expectNextPersistedClass(orderPersistenceId, OrderEntity.OrderWasInFulfilment.class);
+            persistenceTestKit.expectNextPersistedClass(orderPersistenceId, OrderEntity.OrderClosed.class);
+        } finally {
+            testKit.stop(unfinishedOrders);
+        }
+    }
+
+    @Test
+    public void cacheTheRepliesOfCreateAndPay() throws Exception {
+        OrderSummaryCache cache = OrderSummaryCache.get(testKit.system());
+        String orderId = UUID.randomUUID().toString();
+        List<String> items = Collections.singletonList("Corsair RM750");
+        OrderEntity.OrderSummary created = new OrderEntity.OrderSummary(orderId, items, OrderEntity.OrderStatus.CREATED, null, "1");
+        OrderEntity.OrderSummary paid = new OrderEntity.OrderSummary(orderId, items, OrderEntity.OrderStatus.PAID, null, "1");
+
+        assertThat(cache.get(orderId, id -> CompletableFuture.completedFuture(created)).toCompletableFuture().get().state)
+                .isEqualTo(OrderEntity.OrderStatus.CREATED);
+        cache.put(paid);
+        assertThat(cache.get(orderId, id -> CompletableFuture.failedFuture(new AssertionError("loaded")))
+                .toCompletableFuture().get().state).isEqualTo(OrderEntity.OrderStatus.PAID);
+
+        // a reply that arrives after the order moved on does not replace the later status
+        cache.put(created);
+        assertThat(cache.get(orderId, id -> CompletableFuture.failedFuture(new AssertionError("loaded")))
+                .toCompletableFuture().get().state).isEqualTo(OrderEntity.OrderStatus.PAID);
     }
 
     @Test
@@ -166,6 +334,67 @@ public class OrdersIntegrationTest extends JUnitRouteTest {
         assertThat(ordersResponse.state).isEqualTo(OrderEntity.OrderStatus.CREATED);
     }
 
+    @Test
+    public void getOrderByIdIsNotModifiedWhileItsStatusIsUnchanged() {
+        TestProbe<StatusReply<OrderEntity.OrderSummary>> createOrderProbe = testKit.createTestProbe();
+        EntityRef<OrderEntity.Command> entityRef = ClusterSharding.get(testKit.system()).entityRefFor(OrderEntity.ENTITY_KEY, UUID.randomUUID().toString());
+        entityRef.tell(new OrderEntity.CreateOrder(Collections.singletonList("Razer DeathAdder"), "1", createOrderProbe.getRef()));
+        String orderId = createOrderProbe.receiveMessage().getValue().id;
+        IfNoneMatch created = IfNoneMatch.create(EntityTagRange.create(EntityTag.create(orderId + "-CREATED", false)));
+
+        appRoute.run(HttpRequest.GET("/orders/" + orderId))
+                .assertStatusCode(StatusCodes.OK)
+                .assertHeaderExists("ETag", "\"" + orderId + "-CREATED\"");
+
+        appRoute.run(HttpRequest.GET("/orders/" + orderId).addHeader(created))
+                .assertStatusCode(StatusCodes.NOT_MODIFIED);
+
+        // the tag of another order in the same status does not match
+        entityRef = ClusterSharding.get(testKit.system()).entityRefFor(OrderEntity.ENTITY_KEY, UUID.randomUUID().toString());
+        entityRef.tell(new OrderEntity.CreateOrder(Collections.singletonList("Razer DeathAdder"), "1", createOrderProbe.getRef()));
+        String otherOrderId = createOrderProbe.receiveMessage().getValue().id;
+        appRoute.run(HttpRequest.GET("/orders/" + otherOrderId).addHeader(created))
+                .assertStatusCode(StatusCodes.OK);
+
+        appRoute.run(HttpRequest.GET(String.format("/orders/%s/confirm", orderId)))
+                .assertStatusCode(StatusCodes.OK);
+
+        // the tag from before the order was paid is stale
+        appRoute.run(HttpRequest.GET("/orders/" + orderId).addHeader(created))
+                .assertStatusCode(StatusCodes.OK)
+                .assertHeaderExists("ETag", "\"" + orderId + "-PAID\"");
+    }
+
+    @Test
+    public void streamStatusChangesOfOrderUntilItIsClosed() throws Exception {
+        TestProbe<StatusReply<OrderEntity.OrderSummary>> createOrderProbe = testKit.createTestProbe();
+        EntityRef<OrderEntity.Command> entityRef = ClusterSharding.get(testKit.system()).entityRefFor(OrderEntity.ENTITY_KEY, UUID.randomUUID().toString());
+        entityRef.tell(new OrderEntity.CreateOrder(Collections.singletonList("Corsair K70"), "1", createOrderProbe.getRef()));
+        String orderId = createOrderProbe.receiveMessage().getValue().id;
+
+        // the route test kit waits for the whole response entity, so the events are read from the route flow
+        HttpResponse events = Source.single(HttpRequest.GET("/orders/" + orderId + "/events"))
+                .via(new OrderRoutes(testKit.system()).userRoutes().flow(testKit.system()))
+                .runWith(Sink.head(), testKit.system())
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertThat(events.status()).isEqualTo(StatusCodes.OK);
+        assertThat(events.entity().getContentType().mediaType()).isEqualTo(MediaTypes.TEXT_EVENT_STREAM);
+
+        appRoute.run(HttpRequest.GET(String.format("/orders/%s/confirm", orderId)))
+                .assertStatusCode(StatusCodes.OK);
+
+        // the stream completes once the order is closed
+        String body = events.entity().toStrict(5000, testKit.system())
+                .toCompletableFuture().get(6, TimeUnit.SECONDS)
+                .getData().utf8String();
+        List<OrderEntity.OrderStatus> statuses = body.lines()
+                .filter(line -> line.startsWith("event:"))
+                .map(line -> OrderEntity.OrderStatus.valueOf(line.substring("event:".length()).trim()))
+                .collect(Collectors.toList());
+
+        assertThat(statuses).startsWith(OrderEntity.OrderStatus.CREATED).endsWith(OrderEntity.OrderStatus.CLOSED).isSorted();
+    }
+
     @Test
     public void shouldThrowBadRequestIfPayingSameOrderTwice() {
         String itemName = "Logitech MX518";
@@ -185,4 +414,275 @@ public class OrdersIntegrationTest extends JUnitRouteTest {
                 .assertStatusCode(StatusCodes.BAD_REQUEST)
                 .assertMediaType("application/json");
     }
+
+    @Test
+    public void createOrdersInBulkFromJsonArray() {
+        List<BulkOrderResult> results = Arrays.asList(appRoute.run(HttpRequest.POST("/orders/bulk")
+                .withEntity(ContentTypes.APPLICATION_JSON,
+                        "[{\"userId\": \"1\", \"items\": [\"Asus GTX 2060\"]},\n" +
+                                " {\"userId\": \"1\", \"items\": [\"ab\"]},\n" +
+                                " {\"userId\": \"2\", \"items\": [\"Logitech MX518\"]}]"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("application/json")
+                .entity(Jackson.unmarshaller(BulkOrderResult[].class)));
+
+        assertThat(results).extracting(result -> result.index).containsExactlyInAnyOrder(0L, 1L, 2L);
+        for (BulkOrderResult result : results) {
+            if (result.index == 1) {
+                assertThat(result.order).isNull();
+                assertThat(result.errorMessage).isEqualTo("Each item names must contain at least 3 characters");
+            } else {
+                assertThat(result.errorMessage).isNull();
+                assertThat(result.order.state).isEqualTo(OrderEntity.OrderStatus.CREATED);
+                persistenceTestKit.expectNextPersistedClass(PersistenceId.of(OrderEntity.ENTITY_KEY.name(), result.order.id).id(), OrderEntity.OrderCreated.class);
+            }
+        }
+    }
+
+    @Test
+    public void createOrdersInBulkFromNdjson() {
+        String body = appRoute.run(HttpRequest.POST("/orders/bulk")
+                .withEntity(ContentTypes.create(MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8)),
+                        "{\"userId\": \"1\", \"items\": [\"Asus GTX 2060\"]}\n" +
+                                "{\"userId\": \"1\"}\n"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("application/x-ndjson")
+                .entityString();
+
+        String[] lines = body.trim().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(body).contains("\"state\":\"CREATED\"").contains("Invalid order");
+    }
+
+    @Test
+    public void findOrdersOfUserFromView() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        String firstOrderId = UUID.randomUUID().toString();
+        String secondOrderId = UUID.randomUUID().toString();
+
+        applyToOrdersView(
+                new OrderEntity.OrderCreated(firstOrderId, Collections.singletonList("Asus GTX 2060"), userId),
+                new OrderEntity.OrderCreated(secondOrderId, Collections.singletonList("Logitech MX518"), userId),
+                new OrderEntity.OrderPaid(secondOrderId),
+                new OrderEntity.OrderCreated(UUID.randomUUID().toString(), Collections.singletonList("Intel i3 9100f"), "other-user"));
+
+        List<OrderEntity.OrderSummary> allOrders = Arrays.asList(appRoute.run(HttpRequest.GET("/orders?userId=" + userId))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("application/json")
+                .entity(Jackson.unmarshaller(OrderEntity.OrderSummary[].class)));
+
+        assertThat(allOrders).extracting(order -> order.id).containsExactlyInAnyOrder(firstOrderId, secondOrderId);
+
+        List<OrderEntity.OrderSummary> paidOrders = Arrays.asList(appRoute.run(HttpRequest.GET("/orders?userId=" + userId + "&status=paid"))
+                .assertStatusCode(StatusCodes.OK)
+                .entity(Jackson.unmarshaller(OrderEntity.OrderSummary[].class)));
+
+        assertThat(paidOrders).hasSize(1);
+        assertThat(paidOrders.get(0).id).isEqualTo(secondOrderId);
+        assertThat(paidOrders.get(0).state).isEqualTo(OrderEntity.OrderStatus.PAID);
+        assertThat(paidOrders.get(0).items).containsExactly("Logitech MX518");
+
+        appRoute.run(HttpRequest.GET("/orders?userId=" + userId + "&status=unknown"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void pageThroughOrdersWithCursors() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        List<String> orderIds = Arrays.asList(
+                UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        applyToOrdersView(orderIds.stream()
+                .map(orderId -> new OrderEntity.OrderCreated(orderId, Collections.singletonList("Asus GTX 2060"), userId))
+                .toArray(OrderEntity.Event[]::new));
+
+        List<String> listed = new ArrayList<>();
+        String page = "/orders?userId=" + userId + "&limit=2";
+        int pages = 0;
+        while (page != null) {
+            TestRouteResult result = appRoute.run(HttpRequest.GET(page)).assertStatusCode(StatusCodes.OK);
+            Arrays.stream(result.entity(Jackson.unmarshaller(OrderEntity.OrderSummary[].class)))
+                    .forEach(order -> listed.add(order.id));
+            page = result.response().getHeader(Link.class)
+                    .map(link -> link.getValues().iterator().next().getUri().toString())
+                    .orElse(null);
+            pages++;
+        }
+
+        assertThat(pages).isEqualTo(2);
+        assertThat(listed).containsExactlyInAnyOrderElementsOf(orderIds).doesNotHaveDuplicates();
+
+        appRoute.run(HttpRequest.GET("/orders?userId=" + userId + "&createdTo=" + Instant.now().minusSeconds(60)))
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("[]");
+        appRoute.run(HttpRequest.GET("/orders?userId=" + userId + "&cursor=invalid"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.GET("/orders?userId=" + userId + "&limit=0"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void exportOrdersAsNdjsonAndCsv() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        String firstOrderId = UUID.randomUUID().toString();
+        String secondOrderId = UUID.randomUUID().toString();
+        applyToOrdersView(
+                new OrderEntity.OrderCreated(firstOrderId, Arrays.asList("Asus GTX 2060", "Cable, 2m"), userId),
+                new OrderEntity.OrderCreated(secondOrderId, Collections.singletonList("Logitech MX518"), userId),
+                new OrderEntity.OrderClosed(secondOrderId, true));
+
+        String ndjson = appRoute.run(HttpRequest.GET("/orders/export?userId=" + userId))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("application/x-ndjson")
+                .entityString();
+        assertThat(ndjson.trim().split("\n")).hasSize(2);
+        assertThat(ndjson).contains(firstOrderId).contains(secondOrderId);
+
+        // the limit of a listing does not limit an export, nor change its page size
+        String limited = appRoute.run(HttpRequest.GET("/orders/export?userId=" + userId + "&limit=1"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString();
+        assertThat(limited.trim().split("\n")).hasSize(2);
+
+        String csv = appRoute.run(HttpRequest.GET("/orders/export?userId=" + userId + "&format=csv"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("text/csv")
+                .entityString();
+        assertThat(csv.split("\r\n")).containsExactlyInAnyOrder(
+                "id,userId,items,status,isShippedSuccessfully",
+                firstOrderId + "," + userId + ",\"Asus GTX 2060;Cable, 2m\",CREATED,",
+                secondOrderId + "," + userId + ",Logitech MX518,CLOSED,true");
+
+        appRoute.run(HttpRequest.GET("/orders/export?format=xml"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void countOrdersByStatusAndUser() throws Exception {
+        OrderStatistics statistics = OrderStatistics.get(testKit.system());
+        TestProbe<Boolean> ready = testKit.createTestProbe();
+        ready.awaitAssert(() -> assertThat(statistics.isReady()).isTrue());
+        long paidBefore = statistics.summary(Optional.empty()).byStatus.get(OrderEntity.OrderStatus.PAID);
+
+        String userId = UUID.randomUUID().toString();
+        String orderId = UUID.randomUUID().toString();
+        statistics.apply(new OrderEntity.OrderCreated(orderId, Arrays.asList("Asus GTX 2060", "Logitech MX518"), userId));
+        statistics.apply(new OrderEntity.OrderCreated(UUID.randomUUID().toString(), Collections.singletonList("Intel i3 9100f"), userId));
+        statistics.apply(new OrderEntity.OrderPaid(orderId));
+
+        JsonNode stats = new ObjectMapper().readTree(appRoute.run(HttpRequest.GET("/orders/stats?userId=" + userId))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+        assertThat(stats.at("/user/orders").asInt()).isEqualTo(2);
+        assertThat(stats.at("/user/items").asInt()).isEqualTo(3);
+        assertThat(stats.at("/byStatus/PAID").asLong()).isEqualTo(paidBefore + 1);
+    }
+
+    @Test
+    public void rejectRequestsBeyondTheAdmissionLimit() {
+        AdmissionControl admission = AdmissionControl.get(testKit.system());
+        int taken = 0;
+        while (admission.tryAcquire()) {
+            taken++;
+        }
+        try {
+            appRoute.run(HttpRequest.GET("/orders?userId=" + UUID.randomUUID()))
+                    .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                    .assertHeaderExists(RetryAfter.create(1L));
+        } finally {
+            for (int i = 0; i < taken; i++) {
+                admission.release(false);
+            }
+        }
+
+        appRoute.run(HttpRequest.GET("/orders?userId=" + UUID.randomUUID()))
+                .assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    public void rejectStreamedRequestsBeyondTheStreamLimit() {
+        AdmissionControl admission = AdmissionControl.get(testKit.system());
+        int taken = 0;
+        while (admission.tryAcquireStream()) {
+            taken++;
+        }
+        try {
+            appRoute.run(HttpRequest.GET("/orders/export?userId=" + UUID.randomUUID()))
+                    .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                    .assertHeaderExists(RetryAfter.create(1L));
+            appRoute.run(HttpRequest.POST("/orders/bulk")
+                            .withEntity(ContentTypes.APPLICATION_JSON, "[{\"userId\": \"1\", \"items\": [\"Asus GTX 2060\"]}]"))
+                    .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                    .assertHeaderExists(RetryAfter.create(1L));
+        } finally {
+            for (int i = 0; i < taken; i++) {
+                admission.releaseStream();
+            }
+        }
+
+        appRoute.run(HttpRequest.GET("/orders/export?userId=" + UUID.randomUUID()))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString();
+        // the export gave its slot back once its response was sent
+        int streams = taken;
+        TestProbe<Integer> probe = testKit.createTestProbe();
+        probe.awaitAssert(() -> {
+            int free = 0;
+            while (admission.tryAcquireStream()) {
+                free++;
+            }
+            for (int i = 0; i < free; i++) {
+                admission.releaseStream();
+            }
+            assertThat(free).isEqualTo(streams);
+            return null;
+        });
+    }
+
+    @Test
+    public void locateTheNodeOfAnOrder() {
+        OrderEntity.OrderSummary order = appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"userId\": \"1\", \"items\": [\"Asus GTX 2060\"]}"))
+                .assertStatusCode(StatusCodes.CREATED)
+                .entity(Jackson.unmarshaller(OrderEntity.OrderSummary.class));
+
+        // plain ids keep the shard the default extractor of sharding gives them, ids with a shard in front go there
+        OrderShards shards = OrderShards.get(testKit.system());
+        assertThat(shards.shardId(order.id))
+                .isEqualTo(new HashCodeMessageExtractor<OrderEntity.Command>(shards.numberOfShards()).shardId(order.id));
+        assertThat(shards.shardId("17." + order.id)).isEqualTo("17");
+
+        TestProbe<Object> probe = testKit.createTestProbe();
+        probe.awaitAssert(Duration.ofSeconds(10), () -> {
+            JsonNode owners = new ObjectMapper().readTree(appRoute.run(HttpRequest.GET("/orders/shards?orderId=" + order.id))
+                    .assertStatusCode(StatusCodes.OK)
+                    .entityString());
+            assertThat(owners.get("shardId").asText()).isEqualTo(shards.shardId(order.id));
+            assertThat(owners.get("owner").asText()).isEqualTo("localhost:8080");
+            return null;
+        });
+    }
+
+    private void applyToOrdersView(OrderEntity.Event... events) throws Exception {
+        OrdersViewHandler handler = new OrdersViewHandler(OrdersViewProjection.createRepository(testKit.system()));
+        PlainJdbcSession session = new PlainJdbcSession(OrdersDataSource.get(testKit.system()).dataSource());
+        try {
+            long sequenceNr = 1;
+            for (OrderEntity.Event event : events) {
+                String persistenceId = PersistenceId.of(OrderEntity.ENTITY_KEY.name(), event.orderId).id();
+                handler.process(session, EventEnvelope.create(Offset.sequence(sequenceNr), persistenceId, sequenceNr, event, System.currentTimeMillis()));
+                sequenceNr++;
+            }
+            session.commit();
+        } finally {
+            session.close();
+        }
+    }
+
+    private Set<String> runningOrderIds() {
+        TestProbe<ShardRegion.CurrentShardRegionState> probe = testKit.createTestProbe();
+        ClusterSharding.get(testKit.system()).shardState().tell(new GetShardRegionState(OrderEntity.ENTITY_KEY, probe.getRef()));
+        return probe.receiveMessage().getShards().stream()
+                .flatMap(shard -> shard.getEntityIds().stream())
+                .collect(Collectors.toSet());
+    }
 }
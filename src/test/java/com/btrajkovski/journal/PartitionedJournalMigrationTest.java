@@ -0,0 +1,202 @@
+package com.btrajkovski.journal;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PartitionedJournalMigrationTest {
+    private static final String[] TAGS = {"orders-0", "orders-1", "orders-2"};
+
+    private Connection connection;
+    private PartitionedJournalMigration migration;
+    private long lastOrdering;
+
+    @Before
+    public void createTables() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:partitioned-journal-migration;MODE=PostgreSQL;DATABASE_TO_LOWER=true");
+        try (Statement statement = connection.createStatement()) {
+            for (String table : new String[]{"event_journal", "event_journal_partitioned"}) {
+                statement.execute("CREATE TABLE " + table + "(ordering BIGSERIAL, persistence_id VARCHAR(255) NOT NULL, "
+                        + "sequence_number BIGINT NOT NULL, deleted BOOLEAN DEFAULT FALSE NOT NULL, "
+                        + "writer VARCHAR(255) NOT NULL, write_timestamp BIGINT, adapter_manifest VARCHAR(255), "
+                        + "event_ser_id INTEGER NOT NULL, event_ser_manifest VARCHAR(255) NOT NULL, event_payload BYTEA NOT NULL, "
+                        + "meta_ser_id INTEGER, meta_ser_manifest VARCHAR(255), meta_payload BYTEA, "
+                        + "PRIMARY KEY(persistence_id, sequence_number))");
+            }
+            for (String table : new String[]{"event_tag", "event_tag_partitioned"}) {
+                statement.execute("CREATE TABLE " + table + "(event_id BIGINT, tag VARCHAR(256), PRIMARY KEY(event_id, tag))");
+            }
+            // the PostgreSQL functions finish moves the ordering sequence with, as far as H2 has them
+            statement.execute("CREATE ALIAS pg_get_serial_sequence FOR \"" + getClass().getName() + ".serialSequence\"");
+            statement.execute("CREATE ALIAS setval FOR \"" + getClass().getName() + ".setSequenceValue\"");
+        }
+        connection.setAutoCommit(false);
+        migration = new PartitionedJournalMigration(connection,
+                ConfigFactory.parseString("batch-size = 7, recopy-margin = 5"));
+    }
+
+    @After
+    public void dropTables() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void copyTheEventsAndTagsOfEveryEntity() throws SQLException {
+        writeEvents("Order|order-1", 1, 20);
+        writeEvents("Order|order-2", 1, 13);
+        writeEvents("Fulfilment|order-1", 1, 4);
+
+        migration.copy();
+        // recopy-margin events are left for the next run
+        assertThat(highestOrdering("event_journal_partitioned")).isEqualTo(lastOrdering - 5);
+
+        migration.finish();
+
+        assertThat(rows("event_journal_partitioned")).isEqualTo(rows("event_journal")).hasSize(37);
+        assertThat(tags("event_tag_partitioned")).isEqualTo(tags("event_tag")).hasSize(37);
+        assertThat(highestSequenceNumber("event_journal_partitioned", "Order|order-1")).isEqualTo(20);
+        assertThat(highestSequenceNumber("event_journal_partitioned", "Order|order-2")).isEqualTo(13);
+    }
+
+    @Test
+    public void continueFromTheEventsCopiedByEarlierRuns() throws SQLException {
+        writeEvents("Order|order-1", 1, 10);
+        migration.copy();
+        migration.copy();
+
+        // the service keeps writing between runs
+        writeEvents("Order|order-1", 11, 25);
+        writeEvents("Order|order-3", 1, 6);
+        migration.copy();
+        writeEvents("Order|order-3", 7, 9);
+        migration.finish();
+
+        assertThat(rows("event_journal_partitioned")).isEqualTo(rows("event_journal")).hasSize(34);
+        assertThat(tags("event_tag_partitioned")).isEqualTo(tags("event_tag"));
+        assertThat(highestSequenceNumber("event_journal_partitioned", "Order|order-1")).isEqualTo(25);
+        assertThat(highestSequenceNumber("event_journal_partitioned", "Order|order-3")).isEqualTo(9);
+    }
+
+    @Test
+    public void continueTheOrderingAfterTheCopiedEvents() throws SQLException {
+        writeEvents("Order|order-1", 1, 12);
+        migration.finish();
+
+        writeEvent("event_journal_partitioned", "Order|order-1", 13);
+
+        assertThat(highestOrdering("event_journal_partitioned")).isEqualTo(lastOrdering + 1);
+        assertThat(highestSequenceNumber("event_journal_partitioned", "Order|order-1")).isEqualTo(13);
+    }
+
+    @Test
+    public void copyNothingFromAnEmptyJournal() throws SQLException {
+        migration.copy();
+        migration.finish();
+
+        assertThat(rows("event_journal_partitioned")).isEmpty();
+    }
+
+    private void writeEvents(String persistenceId, long fromSequenceNumber, long toSequenceNumber) throws SQLException {
+        for (long sequenceNumber = fromSequenceNumber; sequenceNumber <= toSequenceNumber; sequenceNumber++) {
+            lastOrdering = writeEvent("event_journal", persistenceId, sequenceNumber);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO event_tag (event_id, tag) VALUES (?, ?)")) {
+                statement.setLong(1, lastOrdering);
+                statement.setString(2, TAGS[(int) (lastOrdering % TAGS.length)]);
+                statement.executeUpdate();
+            }
+        }
+        connection.commit();
+    }
+
+    private long writeEvent(String table, String persistenceId, long sequenceNumber) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table
+                        + " (persistence_id, sequence_number, writer, write_timestamp, event_ser_id, event_ser_manifest, event_payload) "
+                        + "VALUES (?, ?, 'writer-1', ?, 33, 'com.btrajkovski.orders.OrderEntity$OrderPaid', ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, persistenceId);
+            statement.setLong(2, sequenceNumber);
+            statement.setLong(3, 1_600_000_000_000L + sequenceNumber);
+            statement.setBytes(4, (persistenceId + "#" + sequenceNumber).getBytes());
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                long ordering = keys.getLong(1);
+                connection.commit();
+                return ordering;
+            }
+        }
+    }
+
+    private List<String> rows(String table) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT ordering, persistence_id, sequence_number, write_timestamp, "
+                     + "event_ser_id, event_ser_manifest, event_payload FROM " + table + " ORDER BY ordering")) {
+            while (resultSet.next()) {
+                rows.add(resultSet.getLong(1) + " " + resultSet.getString(2) + " " + resultSet.getLong(3) + " "
+                        + resultSet.getLong(4) + " " + resultSet.getInt(5) + " " + resultSet.getString(6) + " "
+                        + new String(resultSet.getBytes(7)));
+            }
+        }
+        connection.commit();
+        return rows;
+    }
+
+    private List<String> tags(String table) throws SQLException {
+        List<String> tags = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT event_id, tag FROM " + table + " ORDER BY event_id, tag")) {
+            while (resultSet.next()) {
+                tags.add(resultSet.getLong(1) + " " + resultSet.getString(2));
+            }
+        }
+        connection.commit();
+        return tags;
+    }
+
+    private long highestOrdering(String table) throws SQLException {
+        return single("SELECT COALESCE(MAX(ordering), 0) FROM " + table);
+    }
+
+    private long highestSequenceNumber(String table, String persistenceId) throws SQLException {
+        return single("SELECT MAX(sequence_number) FROM " + table + " WHERE persistence_id = '" + persistenceId + "'");
+    }
+
+    private long single(String query) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            long value = resultSet.getLong(1);
+            connection.commit();
+            return value;
+        }
+    }
+
+    public static String serialSequence(String table, String column) {
+        return table + "." + column;
+    }
+
+    public static long setSequenceValue(Connection connection, String sequence, long value, boolean isCalled) throws SQLException {
+        String[] tableAndColumn = sequence.split("\\.");
+        long next = isCalled ? value + 1 : value;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + tableAndColumn[0] + " ALTER COLUMN " + tableAndColumn[1] + " RESTART WITH " + next);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,90 @@
+package com.btrajkovski.metrics;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.Adapter;
+import akka.dispatch.DispatcherPrerequisites;
+import com.typesafe.config.ConfigFactory;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DispatchersTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit =
+            new TestKitJunitResource(ConfigFactory.load(DispatchersTest.class.getClassLoader(), "application-test.conf"));
+
+    private static final String DEFAULT_DISPATCHER = "akka.actor.default-dispatcher";
+    private static final String PROJECTION_DISPATCHER = "akka.projection.jdbc.blocking-jdbc-dispatcher";
+    private static final List<String> APPLICATION_DISPATCHERS =
+            Arrays.asList("my-app.http-dispatcher", "my-app.entity-dispatcher", "my-app.journal-dispatcher");
+
+    @Test
+    public void instrumentTheDefaultDispatcher() throws Exception {
+        assertThat(testKit.system().settings().config().getString(DEFAULT_DISPATCHER + ".executor"))
+                .isEqualTo(InstrumentedExecutorConfigurator.class.getName());
+
+        assertRunsOn(DispatcherSelector.defaultDispatcher(), DEFAULT_DISPATCHER);
+        assertReported(DEFAULT_DISPATCHER);
+        assertThat(DispatcherMetrics.tracked(DEFAULT_DISPATCHER)).isInstanceOf(ForkJoinPool.class);
+    }
+
+    @Test
+    public void runEachApplicationDispatcherOnItsOwnThreads() throws Exception {
+        for (String dispatcher : APPLICATION_DISPATCHERS) {
+            assertRunsOn(DispatcherSelector.fromConfig(dispatcher), dispatcher);
+            assertReported(dispatcher);
+            assertThat(DispatcherMetrics.tracked(dispatcher)).isInstanceOf(ForkJoinPool.class);
+        }
+    }
+
+    @Test
+    public void wrapAThreadPoolExecutorConfiguredAsUsual() throws Exception {
+        assertRunsOn(DispatcherSelector.fromConfig(PROJECTION_DISPATCHER), PROJECTION_DISPATCHER);
+        assertReported(PROJECTION_DISPATCHER);
+
+        assertThat(DispatcherMetrics.tracked(PROJECTION_DISPATCHER)).isInstanceOf(ThreadPoolExecutor.class);
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) DispatcherMetrics.tracked(PROJECTION_DISPATCHER);
+        assertThat(pool.getCorePoolSize()).isEqualTo(10);
+    }
+
+    @Test
+    public void rejectExecutorsItCannotInstrument() {
+        DispatcherPrerequisites prerequisites = Adapter.toClassic(testKit.system()).dispatchers().prerequisites();
+
+        assertThatThrownBy(() -> new InstrumentedExecutorConfigurator(
+                ConfigFactory.parseString("instrumented-executor = affinity-pool-executor"), prerequisites))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("affinity-pool-executor");
+    }
+
+    private static void assertRunsOn(DispatcherSelector selector, String dispatcher) throws Exception {
+        Executor executor = testKit.system().dispatchers().lookup(selector);
+        String thread = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), executor)
+                .get(3, TimeUnit.SECONDS);
+        assertThat(thread).contains(dispatcher);
+    }
+
+    private static void assertReported(String dispatcher) {
+        String[] labelNames = {"dispatcher"};
+        String[] labels = {dispatcher};
+        assertThat(CollectorRegistry.defaultRegistry.getSampleValue("dispatcher_pool_size", labelNames, labels))
+                .isGreaterThanOrEqualTo(1);
+        assertThat(CollectorRegistry.defaultRegistry.getSampleValue("dispatcher_active_threads", labelNames, labels))
+                .isNotNull();
+        assertThat(CollectorRegistry.defaultRegistry.getSampleValue("dispatcher_queued_tasks", labelNames, labels))
+                .isNotNull();
+    }
+}
@@ -0,0 +1,107 @@
+package com.btrajkovski.orders;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrderAuditTest {
+    private static final OrderEntity.State CREATED =
+            new OrderEntity.State(Collections.singletonList("Asus GTX 2060"), OrderEntity.OrderStatus.CREATED, null, "user-1");
+
+    private final Logger auditLog = (Logger) LoggerFactory.getLogger("audit.orders");
+    private final ListAppender<ILoggingEvent> written = new ListAppender<>();
+    private final List<String> orderIds = new ArrayList<>();
+
+    @Before
+    public void captureAuditLog() {
+        written.start();
+        auditLog.addAppender(written);
+        for (int i = 0; i < 20_000; i++) {
+            orderIds.add(UUID.randomUUID().toString());
+        }
+    }
+
+    @After
+    public void restoreAuditLog() {
+        auditLog.detachAppender(written);
+        auditLog.setLevel(null);
+    }
+
+    @Test
+    public void writeEveryTransitionOfASampledOrder() {
+        OrderAudit audit = audit(1);
+
+        audit.transition("order-1", 1, CREATED);
+        audit.transition("order-1", 2, CREATED.markOrderAsPaid());
+        audit.transition("order-1", 4, CREATED.markOrderAsPaid().markOrderAsInFulfilment().markOrderAsClosed(true));
+
+        assertThat(written.list).extracting(ILoggingEvent::getFormattedMessage).containsExactly(
+                "event=order-transition order_id=order-1 seq_nr=1 status=CREATED user_id=user-1 shipped=null",
+                "event=order-transition order_id=order-1 seq_nr=2 status=PAID user_id=user-1 shipped=null",
+                "event=order-transition order_id=order-1 seq_nr=4 status=CLOSED user_id=user-1 shipped=true");
+        assertThat(written.list).extracting(ILoggingEvent::getLevel).containsOnly(Level.INFO);
+    }
+
+    @Test
+    public void sampleTheShareOfOrdersOfTheSampleRate() {
+        OrderAudit audit = audit(0.1);
+
+        orderIds.forEach(orderId -> audit.transition(orderId, 1, CREATED));
+
+        assertThat(written.list.size()).isBetween(1600, 2400);
+    }
+
+    @Test
+    public void sampleTheSameOrdersOnEveryNode() {
+        List<String> sampled = orderIds.stream().filter(audit(0.1)::isSampled).collect(Collectors.toList());
+
+        assertThat(orderIds.stream().filter(audit(0.1)::isSampled)).containsExactlyElementsOf(sampled);
+        // a higher rate keeps the orders sampled at the lower one
+        assertThat(sampled).allMatch(audit(0.5)::isSampled);
+    }
+
+    @Test
+    public void writeNothingAtSampleRateZero() {
+        OrderAudit audit = audit(0);
+
+        orderIds.forEach(orderId -> audit.transition(orderId, 1, CREATED));
+
+        assertThat(written.list).isEmpty();
+    }
+
+    @Test
+    public void writeNothingWhileTheAuditLoggerIsOff() {
+        OrderAudit audit = audit(1);
+        auditLog.setLevel(Level.OFF);
+
+        orderIds.forEach(orderId -> audit.transition(orderId, 1, CREATED));
+
+        assertThat(written.list).isEmpty();
+    }
+
+    @Test
+    public void rejectSampleRatesOutsideZeroToOne() {
+        assertThatThrownBy(() -> audit(1.5)).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("my-app.audit.sample-rate");
+        assertThatThrownBy(() -> audit(-0.1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static OrderAudit audit(double sampleRate) {
+        return new OrderAudit(ConfigFactory.parseString("sample-rate = " + sampleRate));
+    }
+}
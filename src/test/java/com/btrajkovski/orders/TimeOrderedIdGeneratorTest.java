@@ -0,0 +1,92 @@
+package com.btrajkovski.orders;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeOrderedIdGeneratorTest {
+    private static final long NODE = 0x0123456789ABCL;
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void generateVersion7UuidsWithTheTimeAndNode() {
+        UUID id = UUID.fromString(new TimeOrderedIdGenerator(NODE, () -> NOW).nextId());
+
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(id.getMostSignificantBits() >>> 16).isEqualTo(NOW);
+        assertThat(id.getLeastSignificantBits() & ((1L << 52) - 1)).isEqualTo(NODE);
+    }
+
+    @Test
+    public void orderIdsOfTheSameMillisecondBySequence() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(NODE, () -> NOW);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add(generator.nextId());
+        }
+
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+        // the sequence is split by the variant, 5000 ids run through more than 10 bits of it
+        ids.forEach(id -> assertThat(UUID.fromString(id).getMostSignificantBits() >>> 16).isEqualTo(NOW));
+    }
+
+    @Test
+    public void keepOrderingIdsWhenTheClockGoesBack() {
+        AtomicLong clock = new AtomicLong(NOW);
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(NODE, clock::get);
+
+        String beforeJump = generator.nextId();
+        clock.set(NOW - 1000);
+        String afterJump = generator.nextId();
+        String later = generator.nextId();
+        clock.set(NOW + 1);
+        String caughtUp = generator.nextId();
+
+        assertThat(List.of(beforeJump, afterJump, later, caughtUp)).isSorted().doesNotHaveDuplicates();
+        // ids run ahead of the clock, they keep the time of the last id until the clock is back
+        assertThat(UUID.fromString(later).getMostSignificantBits() >>> 16).isEqualTo(NOW);
+        assertThat(UUID.fromString(caughtUp).getMostSignificantBits() >>> 16).isEqualTo(NOW + 1);
+    }
+
+    @Test
+    public void generateUniqueIdsFromConcurrentCallers() throws Exception {
+        TimeOrderedIdGenerator generator = TimeOrderedIdGenerator.forNode(NODE);
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        int callers = 8;
+        int idsPerCaller = 20_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<CompletableFuture<Void>> done = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                done.add(CompletableFuture.runAsync(() -> {
+                    // each caller sees its own ids increasing
+                    String last = "";
+                    for (int j = 0; j < idsPerCaller; j++) {
+                        String id = generator.nextId();
+                        assertThat(id).isGreaterThan(last);
+                        ids.add(id);
+                        last = id;
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(ids).hasSize(callers * idsPerCaller);
+    }
+}
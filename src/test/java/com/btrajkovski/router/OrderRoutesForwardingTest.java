@@ -0,0 +1,47 @@
+package com.btrajkovski.router;
+
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.headers.Host;
+import akka.http.javadsl.model.headers.RawHeader;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrderRoutesForwardingTest {
+    private static final String SELF = "10.0.0.1:8080";
+    private static final String OWNER = "10.0.0.2:8081";
+
+    private final HttpRequest request = HttpRequest.GET("http://orders.example.com/orders/17.order-1?x=1")
+            .addHeader(Host.create("orders.example.com"));
+
+    @Test
+    public void serveLocallyWhatThisOrNoKnownNodeHosts() {
+        assertThat(OrderRoutes.forwardTarget(request, Optional.of(SELF), SELF)).isEmpty();
+        assertThat(OrderRoutes.forwardTarget(request, Optional.empty(), SELF)).isEmpty();
+    }
+
+    @Test
+    public void forwardWhatAnotherNodeHosts() {
+        assertThat(OrderRoutes.forwardTarget(request, Optional.of(OWNER), SELF)).contains(OWNER);
+
+        HttpRequest forwarded = OrderRoutes.forwarded(request, OWNER, SELF);
+        assertThat(forwarded.getUri().toString()).isEqualTo("http://10.0.0.2:8081/orders/17.order-1?x=1");
+        assertThat(forwarded.getHeader(Host.class)).isEmpty();
+        assertThat(forwarded.getHeader(OrderRoutes.FORWARDED_BY_HEADER).map(header -> header.value())).contains(SELF);
+    }
+
+    @Test
+    public void neverForwardAForwardedRequestAgain() {
+        HttpRequest forwarded = OrderRoutes.forwarded(request, OWNER, SELF);
+
+        // the owner moved in the meantime, the node that received the forwarded request serves it anyway
+        assertThat(OrderRoutes.forwardTarget(forwarded, Optional.of(SELF), OWNER)).isEmpty();
+        assertThat(OrderRoutes.forwardTarget(request.addHeader(RawHeader.create(OrderRoutes.FORWARDED_BY_HEADER, OWNER)),
+                Optional.of(OWNER), SELF)).isEmpty();
+        assertThatThrownBy(() -> OrderRoutes.forwarded(forwarded, SELF, OWNER))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
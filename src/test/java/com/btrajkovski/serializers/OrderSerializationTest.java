@@ -0,0 +1,158 @@
+package com.btrajkovski.serializers;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import akka.pattern.StatusReply;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import akka.serialization.jackson.JacksonObjectMapperProvider;
+import com.btrajkovski.orders.FulfilmentProvider;
+import com.btrajkovski.orders.OrderEntity;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderSerializationTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit =
+            new TestKitJunitResource(ConfigFactory.load(OrderSerializationTest.class.getClassLoader(), "application-test.conf"));
+
+    // identifier of jackson-json in the rows of the journal and snapshot store written before jackson-cbor
+    private static final int JACKSON_JSON = 31;
+    private static final int JACKSON_CBOR = 33;
+    private static final List<String> ITEMS = Arrays.asList("Asus GTX 2060", "Logitech MX518");
+
+    private final Serialization serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+
+    @Test
+    public void readEventsStoredWithJacksonJson() {
+        OrderEntity.OrderCreated created = readJson(OrderEntity.OrderCreated.class,
+                "{\"orderId\":\"order-1\",\"items\":[\"Asus GTX 2060\",\"Logitech MX518\"],\"userId\":\"user-1\"}");
+        assertThat(created.orderId).isEqualTo("order-1");
+        assertThat(created.items).isEqualTo(ITEMS);
+        assertThat(created.userId).isEqualTo("user-1");
+
+        assertThat(readJson(OrderEntity.OrderPaid.class, "{\"orderId\":\"order-1\"}").orderId).isEqualTo("order-1");
+        assertThat(readJson(OrderEntity.OrderWasInFulfilment.class, "{\"orderId\":\"order-1\"}").orderId)
+                .isEqualTo("order-1");
+
+        OrderEntity.OrderClosed closed = readJson(OrderEntity.OrderClosed.class,
+                "{\"orderId\":\"order-1\",\"isShippedSuccessfully\":true}");
+        assertThat(closed.orderId).isEqualTo("order-1");
+        assertThat(closed.isShippedSuccessfully).isTrue();
+    }
+
+    @Test
+    public void readSnapshotsStoredWithJacksonJson() {
+        OrderEntity.State state = readJson(OrderEntity.State.class,
+                "{\"items\":[\"Asus GTX 2060\",\"Logitech MX518\"],\"status\":\"CLOSED\"," +
+                        "\"isShippedSuccessfully\":false,\"userId\":\"user-1\"}");
+        assertThat(state.toSummary("order-1"))
+                .isEqualToComparingFieldByFieldRecursively(new OrderEntity.OrderSummary("order-1", ITEMS, OrderEntity.OrderStatus.CLOSED, false, "user-1"));
+
+        OrderEntity.State created = readJson(OrderEntity.State.class,
+                "{\"items\":[\"Asus GTX 2060\"],\"status\":\"CREATED\",\"isShippedSuccessfully\":null,\"userId\":null}");
+        assertThat(created.status()).isEqualTo(OrderEntity.OrderStatus.CREATED);
+        assertThat(created.isShippedSuccessfully()).isNull();
+        assertThat(created.userId).isNull();
+    }
+
+    @Test
+    public void readSnapshotsStoredWithJacksonCborBeforePackedFlags() throws Exception {
+        // the fields of State before the status and shipping result were packed into one byte
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("items", ITEMS);
+        snapshot.put("status", "IN_FULFILLMENT");
+        snapshot.put("isShippedSuccessfully", null);
+        snapshot.put("userId", "user-1");
+        byte[] bytes = cborMapper().writeValueAsBytes(snapshot);
+
+        OrderEntity.State state = (OrderEntity.State) serialization
+                .deserialize(bytes, JACKSON_CBOR, OrderEntity.State.class.getName()).get();
+        assertThat(state.toSummary("order-1")).isEqualToComparingFieldByFieldRecursively(new OrderEntity.OrderSummary(
+                "order-1", ITEMS, OrderEntity.OrderStatus.IN_FULFILLMENT, null, "user-1"));
+    }
+
+    @Test
+    public void writeSnapshotsWithTheFieldsOfState() throws Exception {
+        OrderEntity.State closed = new OrderEntity.State(ITEMS, OrderEntity.OrderStatus.CREATED, null, "user-1")
+                .markOrderAsPaid().markOrderAsInFulfilment().markOrderAsClosed(false);
+
+        JsonNode snapshot = cborMapper().readTree(serialization.serialize(closed).get());
+        assertThat(snapshot.fieldNames())
+                .containsExactlyInAnyOrder("items", "status", "isShippedSuccessfully", "userId");
+        assertThat(snapshot.get("status").asText()).isEqualTo("CLOSED");
+        assertThat(snapshot.get("isShippedSuccessfully").asBoolean(true)).isFalse();
+        assertThat(snapshot.get("userId").asText()).isEqualTo("user-1");
+    }
+
+    private ObjectMapper cborMapper() {
+        return JacksonObjectMapperProvider.get(Adapter.toClassic(testKit.system())).getOrCreate("jackson-cbor", Optional.empty());
+    }
+
+    @Test
+    public void roundTripEventsThroughJacksonCbor() {
+        assertRoundTrip(new OrderEntity.OrderCreated("order-1", ITEMS, "user-1"));
+        assertRoundTrip(new OrderEntity.OrderPaid("order-1"));
+        assertRoundTrip(new OrderEntity.OrderWasInFulfilment("order-1"));
+        assertRoundTrip(new OrderEntity.OrderClosed("order-1", true));
+        assertRoundTrip(new FulfilmentProvider.ShipmentStarted("order-1", 1234L));
+        assertRoundTrip(new FulfilmentProvider.OrderShippingEnded(false));
+    }
+
+    @Test
+    public void roundTripStatesThroughJacksonCbor() {
+        OrderEntity.State created = new OrderEntity.State(ITEMS, OrderEntity.OrderStatus.CREATED, null, "user-1");
+        assertRoundTrip(new OrderEntity.State());
+        assertRoundTrip(created);
+        assertRoundTrip(created.markOrderAsPaid());
+        assertRoundTrip(created.markOrderAsPaid().markOrderAsInFulfilment());
+        assertRoundTrip(created.markOrderAsPaid().markOrderAsInFulfilment().markOrderAsClosed(true));
+        assertRoundTrip(created.markOrderAsPaid().markOrderAsInFulfilment().markOrderAsClosed(false));
+    }
+
+    @Test
+    public void roundTripCommandsThroughJacksonCbor() {
+        ActorRef<StatusReply<OrderEntity.OrderSummary>> replyTo =
+                testKit.<StatusReply<OrderEntity.OrderSummary>>createTestProbe().getRef();
+        assertRoundTrip(new OrderEntity.CreateOrder(ITEMS, "user-1", replyTo));
+        assertRoundTrip(new OrderEntity.GetOrder(replyTo));
+        assertRoundTrip(new OrderEntity.PayOrder(replyTo));
+        assertRoundTrip(new OrderEntity.CloseOrder(true));
+        assertRoundTrip(OrderEntity.OrderInFulfilment.INSTANCE);
+        assertRoundTrip(OrderEntity.ResumeShipment.INSTANCE);
+        ActorRef<OrderEntity.OrderSummary> subscriber = testKit.<OrderEntity.OrderSummary>createTestProbe().getRef();
+        assertRoundTrip(new OrderEntity.SubscribeUpdates(subscriber));
+        assertRoundTrip(new OrderEntity.UnsubscribeUpdates(subscriber));
+        assertRoundTrip(new FulfilmentProvider.StartShipOrder(
+                new OrderEntity.OrderSummary("order-1", ITEMS, OrderEntity.OrderStatus.PAID, null, "user-1")));
+        assertRoundTrip(new FulfilmentProvider.CompleteOrderShipping("order-1"));
+    }
+
+    private <T> T readJson(Class<T> type, String json) {
+        return type.cast(serialization.deserialize(json.getBytes(StandardCharsets.UTF_8), JACKSON_JSON, type.getName()).get());
+    }
+
+    private void assertRoundTrip(Object message) {
+        Serializer serializer = serialization.findSerializerFor(message);
+        assertThat(serializer.identifier()).isEqualTo(JACKSON_CBOR);
+        byte[] bytes = serialization.serialize(message).get();
+        Object read = serialization.deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, message)).get();
+        assertThat(read).isEqualToComparingFieldByFieldRecursively(message);
+    }
+}